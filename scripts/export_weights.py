@@ -0,0 +1,65 @@
+import struct
+import sys
+
+import joblib
+import numpy as np
+
+from dbn.tensorflow import UnsupervisedDBN
+from sklearn.neural_network import MLPClassifier
+
+from model import DBN_NETWORK_FILENAME, MLP_NETWORK_FILENAME
+
+
+WEIGHTS_FILENAME = 'model_weights.bin'
+
+# The header of the weights file, which is read by murusgallicus.ai.NeuralNetwork
+MAGIC = 0x4D474E4E
+VERSION = 1
+
+ACTIVATIONS = {
+    'identity': 0,
+    'relu': 1,
+    'logistic': 2,
+    'sigmoid': 2,
+}
+
+
+def write_layer(file, weights, biases, activation: str):
+    """
+    Write one dense layer. The weights are written row by row with one row per output unit, all
+    numbers are big-endian, so that the file can be read with a java.io.DataInputStream.
+    """
+    outputs, inputs = weights.shape
+    file.write(struct.pack('>iii', inputs, outputs, ACTIVATIONS[activation]))
+    file.write(np.ascontiguousarray(weights, dtype='>f4').tobytes())
+    file.write(np.ascontiguousarray(biases, dtype='>f4').tobytes())
+
+
+def export(filename: str):
+    dbn_network: UnsupervisedDBN = UnsupervisedDBN.load(DBN_NETWORK_FILENAME)
+    mlp_network: MLPClassifier = joblib.load(MLP_NETWORK_FILENAME)
+
+    with open(filename, 'wb') as file:
+        file.write(struct.pack('>ii', MAGIC, VERSION))
+
+        # The encoder, that transforms a single position: h = f(W v + c) for every RBM
+        file.write(struct.pack('>i', len(dbn_network.rbm_layers)))
+        for rbm in dbn_network.rbm_layers:
+            write_layer(file, rbm.W, rbm.c, dbn_network.activation_function)
+
+        # The classifier on the concatenated encodings of two positions: a = f(a W + b)
+        file.write(struct.pack('>i', len(mlp_network.coefs_)))
+        for i, (weights, biases) in enumerate(zip(mlp_network.coefs_, mlp_network.intercepts_)):
+            last_layer = i == len(mlp_network.coefs_) - 1
+            activation = mlp_network.out_activation_ if last_layer else mlp_network.activation
+            write_layer(file, weights.T, biases, activation)
+
+
+def main():
+    filename = sys.argv[1] if len(sys.argv) >= 2 else WEIGHTS_FILENAME
+    export(filename)
+    print(f'Weights written to {filename}')
+
+
+if __name__ == '__main__':
+    main()
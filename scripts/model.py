@@ -1,4 +1,5 @@
 import os
+import struct
 os.environ['TF_CPP_MIN_LOG_LEVEL'] = '3'
 import sys
 import enum
@@ -18,6 +19,7 @@ tf.compat.v1.logging.set_verbosity(tf.compat.v1.logging.ERROR)
 DBN_NETWORK_FILENAME = 'dbn_model.pkl'
 MLP_NETWORK_FILENAME = 'mlp_model.pkl'
 DATA_FILENAME = '/home/ubuntu/repos/KIProjektSS19/scripts/data/data.csv'
+NUMBER_OF_FEATURES = 337
 
 
 class Square(enum.IntEnum):
@@ -99,7 +101,7 @@ def encode_position(fen: str):
     board = board_and_player[0]
     player = board_and_player[1]
 
-    bitboards = np.zeros(337)
+    bitboards = np.zeros(NUMBER_OF_FEATURES)
     squares_fen_order = list(Square)
     squarecounter = 0
     for c in board:
@@ -152,6 +154,45 @@ def predict_mlp(first, second):
     return result.flatten().tolist()
 
 
+def read_exactly(stream, size):
+    data = bytearray()
+    while len(data) < size:
+        chunk = stream.read(size - len(data))
+        if not chunk:
+            raise EOFError('The client closed the pipe in the middle of a request')
+        data += chunk
+    return bytes(data)
+
+
+def serve():
+    """
+    Score batches of position pairs for murusgallicus.ai.ModelClient over stdin and stdout, so that
+    the networks are loaded only once. A request is a big-endian int32 with the number of pairs n,
+    followed by n pairs of positions of NUMBER_OF_FEATURES bytes each (first position, then second
+    position). The response contains 2 big-endian float32 probabilities per pair, in the order of
+    the predict output. A request with n = 0 or the end of stdin stops the server.
+    """
+    dbn_network: UnsupervisedDBN = UnsupervisedDBN.load(DBN_NETWORK_FILENAME)
+    mlp_network: MLPClassifier = joblib.load(MLP_NETWORK_FILENAME)
+    stdin = sys.stdin.buffer
+    stdout = sys.stdout.buffer
+    while True:
+        header = stdin.read(4)
+        if len(header) < 4:
+            break
+        (n,) = struct.unpack('>i', header)
+        if n <= 0:
+            break
+        data = read_exactly(stdin, n * 2 * NUMBER_OF_FEATURES)
+        pairs = np.frombuffer(data, dtype=np.uint8).reshape(n, 2, NUMBER_OF_FEATURES)
+        first_positions = dbn_network.transform(pairs[:, 0].astype(np.float32))
+        second_positions = dbn_network.transform(pairs[:, 1].astype(np.float32))
+        X = np.concatenate((first_positions, second_positions), axis=1)
+        probabilities = mlp_network.predict_proba(X)
+        stdout.write(np.asarray(probabilities, dtype='>f4').tobytes())
+        stdout.flush()
+
+
 def extract_mlp_data(data):
     returned_data = list()
     returned_labels = list()
@@ -202,6 +243,10 @@ def main():
         print(str(result))
         sys.exit(0)
 
+    if len(sys.argv) >= 2 and sys.argv[1] == 'serve':
+        serve()
+        sys.exit(0)
+
     dbn_data, mlp_data, mlp_labels = gather_data()
     print("Splitting data in Training and Test Data...")
     X_train, X_test, Y_train, Y_test = train_test_split(
@@ -1,10 +1,15 @@
 package murusgallicus.ai;
 import murusgallicus.core.Board;
+import murusgallicus.core.EvaluationTrace;
+import murusgallicus.core.Move;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -22,9 +27,9 @@ public class MiniMax {
   }
 
   /**
-   * The number of nodes that are searched during the MiniMax algorithm.
+   * The result of the last negamax search, or null, if the last search was a comparison search.
    */
-  static int nodes;
+  private static volatile SearchResult lastResult;
 
   /**
    * The depth of the generated search tree.
@@ -41,6 +46,196 @@ public class MiniMax {
    */
   static boolean cutOffs = true;
 
+  /**
+   * A score larger than any rating, the initial window of the search.
+   */
+  static final int INFINITY = 1000000;
+
+  /**
+   * The ratings beyond this bound are won or lost games.
+   */
+  static final int MATE_BOUND = 50000;
+
+  /**
+   * The rating of a side, that has no moves left.
+   */
+  static final int NO_MOVES = -100000;
+
+  /**
+   * The deepest iteration of the search, so that the ply never leaves the stacks of the board.
+   */
+  static final int MAX_DEPTH = Board.MAX_PLY - 1;
+
+  /**
+   * Whether the positions are compared by the neural network, instead of being rated by the
+   * rating function of the board in the negamax search. It is enabled with the system property
+   * murusgallicus.evaluator set to "network", "process" or "accumulator".
+   */
+  static boolean useComparisonSearch = System.getProperty("murusgallicus.evaluator") != null
+      && !"rating".equals(System.getProperty("murusgallicus.evaluator"));
+
+  /**
+   * The transposition table of the negamax search. Its size in MB is set with the system property
+   * murusgallicus.hash.
+   */
+  private static TranspositionTable transpositionTable = new TranspositionTable(
+      Integer.getInteger("murusgallicus.hash", TranspositionTable.DEFAULT_SIZE_IN_MB));
+
+  /**
+   * The searchers of the negamax search, one per thread. The first one is run by the calling
+   * thread, the others are the helpers of the Lazy SMP mode, which search the same root in the
+   * helper pool and only share the transposition table with it. The number of threads is set with
+   * the system property murusgallicus.threads.
+   */
+  private static Searcher[] searchers;
+  private static ExecutorService helperPool;
+  private static final List<Future<?>> helperResults = new ArrayList<>();
+
+  /**
+   * Whether several threads search in the Young Brothers Wait mode instead of the Lazy SMP mode.
+   * It is enabled with the system property murusgallicus.parallel set to "ybwc", and the minimum
+   * depth left at a split node is set with the system property murusgallicus.splitdepth.
+   */
+  static boolean useYoungBrothers = "ybwc".equals(System.getProperty("murusgallicus.parallel"));
+  private static int minimumSplitDepth = Integer.getInteger("murusgallicus.splitdepth",
+      YoungBrothersSearch.DEFAULT_MINIMUM_SPLIT_DEPTH);
+  private static YoungBrothersSearch youngBrothersSearch;
+
+  static {
+    setThreads(Integer.getInteger("murusgallicus.threads", 1));
+  }
+
+  /**
+   * The move pickers for every depth of the comparison search, so that no moves get allocated
+   * during it.
+   */
+  private static final MovePicker[] movePickers = new MovePicker[Board.MAX_PLY];
+
+  static {
+    for (int i = 0; i < movePickers.length; i++) movePickers[i] = new MovePicker();
+  }
+
+  /**
+   * The evaluator of the comparison search, that compares the positions. The exported neural
+   * network is loaded on the first comparison, or the server of scripts/model.py is started, if
+   * the system property murusgallicus.evaluator is set to "process".
+   */
+  private static PositionComparator comparator;
+
+  /**
+   * Whether the leaves are evaluated with the first-layer accumulator of the board, which is
+   * updated with every move, instead of encoding the whole position at every leaf. It is enabled
+   * with the system property murusgallicus.evaluator set to "accumulator".
+   */
+  static boolean useAccumulator =
+      "accumulator".equals(System.getProperty("murusgallicus.evaluator"));
+
+  /**
+   * The buffers for the comparisons of a batch. At the nodes in front of the leaves all the
+   * children are collected and compared in as few batches as possible.
+   */
+  private static final int[] childMoves = new int[Board.MAX_MOVES];
+  private static final int[][] childFeatures = new int[Board.MAX_MOVES][];
+  private static final int[][] batchFirsts = new int[2 * Board.MAX_MOVES][];
+  private static final int[][] batchSeconds = new int[2 * Board.MAX_MOVES][];
+  private static final boolean[] batchResults = new boolean[2 * Board.MAX_MOVES];
+
+  static {
+    for (int i = 0; i < childFeatures.length; i++) {
+      childFeatures[i] = new int[NeuralNetwork.NUMBER_OF_FEATURES];
+    }
+  }
+
+  /**
+   * Replace the evaluator, that compares the positions.
+   * @param positionComparator The new evaluator
+   */
+  public static void setComparator(PositionComparator positionComparator) {
+    comparator = positionComparator;
+  }
+
+  /**
+   * Replace the transposition table of the negamax search, e.g. to change its size.
+   * @param table The new transposition table
+   */
+  public static void setTranspositionTable(TranspositionTable table) {
+    transpositionTable = table;
+  }
+
+  /**
+   * Set the number of threads of the negamax search. With more than one thread the search runs in
+   * the Lazy SMP mode.
+   * @param threads The number of threads, at least 1
+   */
+  public static synchronized void setThreads(int threads) {
+    if (threads < 1) throw new IllegalArgumentException("Invalid number of threads: " + threads);
+    if (helperPool != null) helperPool.shutdownNow();
+    searchers = new Searcher[threads];
+    for (int i = 0; i < threads; i++) searchers[i] = new Searcher();
+    helperPool = (threads == 1) ? null : Executors.newFixedThreadPool(threads - 1, runnable -> {
+      Thread thread = new Thread(runnable, "search-helper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (youngBrothersSearch != null) youngBrothersSearch.shutdown();
+    youngBrothersSearch = null;
+  }
+
+  /**
+   * Choose the parallel search mode, that is used with more than one thread.
+   * @param youngBrothers true for the Young Brothers Wait mode, false for the Lazy SMP mode
+   */
+  public static synchronized void setYoungBrothersWait(boolean youngBrothers) {
+    useYoungBrothers = youngBrothers;
+  }
+
+  /**
+   * Set the minimum depth left at a node, so that the Young Brothers Wait mode splits it.
+   * @param depth The minimum split depth, at least 1
+   */
+  public static synchronized void setMinimumSplitDepth(int depth) {
+    if (depth < 1) throw new IllegalArgumentException("Invalid minimum split depth: " + depth);
+    minimumSplitDepth = depth;
+    if (youngBrothersSearch != null) youngBrothersSearch.shutdown();
+    youngBrothersSearch = null;
+  }
+
+  /**
+   * Getter for the number of threads of the negamax search.
+   */
+  public static int getThreads() {
+    return searchers.length;
+  }
+
+  /**
+   * Getter for the result of the last negamax search.
+   * @return The result, or null, if the last search was a comparison search
+   */
+  static SearchResult getLastResult() {
+    return lastResult;
+  }
+
+  /**
+   * Getter for the transposition table of the negamax search.
+   */
+  public static TranspositionTable getTranspositionTable() {
+    return transpositionTable;
+  }
+
+  private static PositionComparator getComparator() {
+    if (comparator == null) {
+      try {
+        if ("process".equals(System.getProperty("murusgallicus.evaluator")))
+          comparator = new ModelClient();
+        else
+          comparator = NeuralNetwork.load();
+      } catch (IOException e) {
+        throw new IllegalStateException("The evaluator cannot be started", e);
+      }
+    }
+    return comparator;
+  }
+
   /**
    * Gets the optimal move for the given position, according the MiniMax search.
    * @param board The current state of the board
@@ -62,14 +257,139 @@ public class MiniMax {
    */
   private static String minimax(Board board, int player, long allocatedTime) {
     depth = 0;
-    nodes = 0;
-    if (maxDepth == -1) {
+    lastResult = null;
+    if (EvaluationTrace.ENABLED) EvaluationTrace.reset();
+    if (useAccumulator && board.getAccumulator() == null
+        && getComparator() instanceof NeuralNetwork) {
+      board.setAccumulator(((NeuralNetwork) getComparator()).createAccumulator());
+    }
+    if (!useComparisonSearch) {
+      return negamaxWithConstraints(board,
+          (maxDepth == -1) ? allocatedTime : Long.MAX_VALUE);
+    } else if (maxDepth == -1) {
       return minimaxWithTimeConstraint(board, player, allocatedTime);
     } else {
       return minimaxWithDepthConstraint(board, player);
     }
   }
 
+  /**
+   * Run the negamax search with iterative deepening, either up to the maximal depth, if it is set,
+   * or until the next iteration would exceed the allocated time.
+   * @param board The current board
+   * @param allocatedTime The allocated time for the move
+   * @return The string representation of the optimal move
+   */
+  private static String negamaxWithConstraints(Board board, long allocatedTime) {
+    long before = System.currentTimeMillis();
+    int lastDepth = (maxDepth == -1) ? MAX_DEPTH : Math.min(maxDepth, MAX_DEPTH);
+    SearchResult result = search(board, lastDepth, allocatedTime);
+    lastResult = result;
+    if (maxDepth != -1) {
+      System.out.println("FEN: " + board.toString());
+      System.out.println("Nodes: " + result.nodes);
+      System.out.println("Score: " + result.score);
+      if (!useYoungBrothers || searchers.length == 1) {
+        System.out.println("PV: " + searchers[0].formatPv());
+        System.out.println(result.formatCutoffRate());
+        System.out.println(transpositionTable);
+      }
+      System.out.println("Time elapsed: " + (System.currentTimeMillis() - before));
+      if (EvaluationTrace.ENABLED) System.out.print(EvaluationTrace.summary());
+    }
+    return Move.toString(result.bestMove);
+  }
+
+  /**
+   * Run the negamax search with iterative deepening. The calling thread runs the iterations of
+   * the first searcher, while in the Lazy SMP mode the helpers search the same root, every second
+   * one starting one ply deeper, so that they run ahead and fill the shared transposition table
+   * with different parts of the tree. The helpers are stopped, when the first searcher is done,
+   * and only its result is used. Every search starts a new generation of the evaluation cache, so
+   * that with the age policy the ratings of earlier searches are replaced first.
+   * @param board The root position
+   * @param lastDepth The depth of the last iteration
+   * @param allocatedTime The time in ms, after which no new iteration is started, or
+   *                      {@link Long#MAX_VALUE}
+   * @return The result of the search
+   */
+  static synchronized SearchResult search(Board board, int lastDepth, long allocatedTime) {
+    Board.getEvaluationCache().newSearch();
+    if (useYoungBrothers && searchers.length > 1)
+      return searchYoungBrothers(board, lastDepth, allocatedTime);
+
+    long before = System.currentTimeMillis();
+    transpositionTable.newSearch();
+    transpositionTable.resetStatistics();
+    for (Searcher searcher: searchers) searcher.prepare(board, transpositionTable);
+    for (int i = 1; i < searchers.length; i++) {
+      Searcher helper = searchers[i];
+      int firstDepth = 1 + (i & 1);
+      helperResults.add(helperPool.submit(() -> helper.iterate(firstDepth, MAX_DEPTH)));
+    }
+
+    Searcher main = searchers[0];
+    for (depth = 1; depth <= lastDepth; depth++) {
+      long iterationStart = System.currentTimeMillis();
+      main.search(depth);
+      long now = System.currentTimeMillis();
+      if (Math.abs(main.score) >= MATE_BOUND) break;
+      if ((now - before) + 4 * (now - iterationStart) > allocatedTime) break;
+    }
+    depth = main.completedDepth;
+
+    for (int i = 1; i < searchers.length; i++) searchers[i].stopped = true;
+    for (Future<?> helperResult: helperResults) {
+      try {
+        helperResult.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("A search helper failed", e.getCause());
+      }
+    }
+    helperResults.clear();
+
+    long nodes = 0;
+    long cutoffs = 0;
+    long firstMoveCutoffs = 0;
+    for (Searcher searcher: searchers) {
+      nodes += searcher.nodes;
+      cutoffs += searcher.cutoffs;
+      firstMoveCutoffs += searcher.firstMoveCutoffs;
+    }
+    return new SearchResult(main.getBestMove(), main.score, depth, nodes, cutoffs,
+        firstMoveCutoffs);
+  }
+
+  /**
+   * Run the Young Brothers Wait search with iterative deepening. The best move of every iteration
+   * is searched first in the next one.
+   * @param board The root position
+   * @param lastDepth The depth of the last iteration
+   * @param allocatedTime The time in ms, after which no new iteration is started, or
+   *                      {@link Long#MAX_VALUE}
+   * @return The result of the search, without cutoff statistics
+   */
+  private static SearchResult searchYoungBrothers(Board board, int lastDepth, long allocatedTime) {
+    if (youngBrothersSearch == null)
+      youngBrothersSearch = new YoungBrothersSearch(searchers.length, minimumSplitDepth);
+    long before = System.currentTimeMillis();
+    youngBrothersSearch.resetNodes();
+    int bestMove = Move.NONE;
+    int score = 0;
+    for (depth = 1; depth <= lastDepth; depth++) {
+      long iterationStart = System.currentTimeMillis();
+      score = youngBrothersSearch.search(board, depth, bestMove);
+      bestMove = youngBrothersSearch.getBestMove();
+      long now = System.currentTimeMillis();
+      if (Math.abs(score) >= MATE_BOUND) break;
+      if ((now - before) + 4 * (now - iterationStart) > allocatedTime) break;
+    }
+    depth = Math.min(depth, lastDepth);
+    return new SearchResult(bestMove, score, depth, youngBrothersSearch.getNodes(), 0, 0);
+  }
+
   /**
    * Run the minimax algorithm until a certain depth is reached. This method mostly serves testing
    * and performance evaluating purposes.
@@ -77,16 +397,17 @@ public class MiniMax {
    * @param player The player whose turn it is to play
    */
   private static String minimaxWithDepthConstraint(Board board, int player) {
-    String bestMove = null;
+    int bestMove = Move.NONE;
     long before = System.currentTimeMillis();
     for (int depth = 0; depth <= maxDepth; depth++) {
-      bestMove = alphaBeta(board, board, board, depth, player).second;
+      int[] position = board.bitify();
+      bestMove = alphaBeta(board, position, position, depth, player).second;
     }
     long after = System.currentTimeMillis();
     System.out.println("FEN: " + board.toString());
-    System.out.println("Nodes: " + nodes);
     System.out.println("Time elapsed: " + (after - before));
-    return bestMove;
+    if (EvaluationTrace.ENABLED) System.out.print(EvaluationTrace.summary());
+    return Move.toString(bestMove);
   }
 
   /**
@@ -97,12 +418,13 @@ public class MiniMax {
    * @param allocatedTime The allocated time for the move
    */
   private static String minimaxWithTimeConstraint(Board board, int player, long allocatedTime) {
-    String bestMove;
+    int bestMove;
     long timeElapsed = 0;
     while (true) {
       maxDepth = depth;
       long before = System.currentTimeMillis();
-      bestMove = alphaBeta(board, board, board, depth, player).second;
+      int[] position = board.bitify();
+      bestMove = alphaBeta(board, position, position, depth, player).second;
       long after = System.currentTimeMillis();
 
       timeElapsed += (after - before);
@@ -110,56 +432,113 @@ public class MiniMax {
       depth++;
     }
     maxDepth = -1;
-    return bestMove;
+    return Move.toString(bestMove);
   }
 
+  /**
+   * Compare two positions with the evaluator.
+   * @return (1, 0), if the first position is predicted to be better, (0, 1) otherwise
+   */
   private static Pair<Integer, Integer> predict(int[] first, int[] second) {
-    String firstString = Arrays.toString(first);
-    String secondString = Arrays.toString(second);
-    String result = null;
-    try {
-      Process p = Runtime.getRuntime().exec("python3 ../../../../../scripts.model.py predict " +
-              firstString + " " + secondString);
-      BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()));
-      result = input.readLine();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    if (result.startsWith("[1")) return new Pair<>(1, 0);
+    batchFirsts[0] = first;
+    batchSeconds[0] = second;
+    getComparator().compare(batchFirsts, batchSeconds, 0, 1, batchResults);
+    if (batchResults[0]) return new Pair<>(1, 0);
     else return new Pair<>(0, 1);
   }
 
-  private static Pair<Pair<Integer, Integer>, String> alphaBeta(Board board, Board alphaPos, Board betaPos, int depth, int player) {
+  /**
+   * The alpha-beta search at a node in front of the leaves. It gives the same result as the
+   * general case, but all the leaves are compared in one batch up front. The leaves are always
+   * compared with the position of the opponent, which does not change in this node, and so are the
+   * cutoff checks of the romans. Only when the gauls find a better position, the cutoff checks of
+   * the remaining children are sent again.
+   */
+  private static Pair<Pair<Integer, Integer>, Integer> alphaBetaFrontier(Board board, int[] alphaPos, int[] betaPos, int player) {
+    MovePicker movePicker = movePickers[1];
+    movePicker.init(board, Move.NONE);
+    int numberOfChildren = 0;
+    int move;
+    while ((move = movePicker.nextMove()) != Move.NONE) {
+      board.makeMove(move);
+      board.bitify(childFeatures[numberOfChildren]);
+      board.unmakeMove(move);
+      childMoves[numberOfChildren++] = move;
+    }
+
+    int[] leafReference = (player == 0) ? betaPos : alphaPos;
+    for (int i = 0; i < numberOfChildren; i++) {
+      batchFirsts[i] = childFeatures[i];
+      batchSeconds[i] = leafReference;
+      batchFirsts[numberOfChildren + i] = betaPos;
+      batchSeconds[numberOfChildren + i] = childFeatures[i];
+    }
+    getComparator().compare(batchFirsts, batchSeconds, 0, 2 * numberOfChildren, batchResults);
+
+    int bestMove = Move.NONE;
+    for (int i = 0; i < numberOfChildren; i++) {
+      if (batchResults[i]) {
+        bestMove = childMoves[i];
+        if (player == 1 && betaPos != childFeatures[i]) {
+          betaPos = childFeatures[i];
+          for (int j = i; j < numberOfChildren; j++) {
+            batchFirsts[numberOfChildren + j] = betaPos;
+            batchSeconds[numberOfChildren + j] = childFeatures[j];
+          }
+          getComparator().compare(batchFirsts, batchSeconds, numberOfChildren + i,
+              numberOfChildren - i, batchResults);
+        }
+      }
+      boolean firstIsBetter = batchResults[numberOfChildren + i];
+      if ((player == 0) ? !firstIsBetter : firstIsBetter) break;
+    }
+    return new Pair<>(null, bestMove);
+  }
+
+  private static Pair<Pair<Integer, Integer>, Integer> alphaBeta(Board board, int[] alphaPos, int[] betaPos, int depth, int player) {
     if (depth == 0) {
-      return (player == 0) ? new Pair<>(predict(board.bitify(), alphaPos.bitify()), null) :
-              new Pair<>(predict(board.bitify(), betaPos.bitify()), null);
+      int[] reference = (player == 0) ? alphaPos : betaPos;
+      if (board.getAccumulator() != null) {
+        boolean firstIsBetter =
+            ((NeuralNetwork) getComparator()).isFirstBetter(board.getAccumulator(), reference);
+        return new Pair<>(firstIsBetter ? new Pair<>(1, 0) : new Pair<>(0, 1), Move.NONE);
+      }
+      return new Pair<>(predict(board.bitify(), reference), Move.NONE);
     }
 
+    if (depth == 1 && board.getAccumulator() == null)
+      return alphaBetaFrontier(board, alphaPos, betaPos, player);
+
+    MovePicker movePicker = movePickers[depth];
+    movePicker.init(board, Move.NONE);
     if (player == 0) {
-      String bestMove = null;
-      String[] moves = board.generateMoves();
-      for (String move: moves) {
-        board.executeMove(move);
-        Pair<Pair<Integer, Integer>, String> rv = alphaBeta(board, alphaPos, betaPos, depth-1, 1);
+      int bestMove = Move.NONE;
+      int move;
+      while ((move = movePicker.nextMove()) != Move.NONE) {
+        board.makeMove(move);
+        Pair<Pair<Integer, Integer>, Integer> rv = alphaBeta(board, alphaPos, betaPos, depth-1, 1);
+        int[] position = board.bitify();
         if (rv.first.first == 1) {
           bestMove = move;
-          alphaPos = board;
+          alphaPos = position;
         }
-        if (predict(betaPos.bitify(), board.bitify()).second == 1) break;
+        board.unmakeMove(move);
+        if (predict(betaPos, position).second == 1) break;
       }
       return new Pair<>(null, bestMove);
     } else {
-      String bestMove = null;
-      String[] moves = board.generateMoves();
-      for (String move: moves) {
-        board.executeMove(move);
-        Pair<Pair<Integer, Integer>, String> rv = alphaBeta(board, alphaPos, betaPos, depth-1, 0);
+      int bestMove = Move.NONE;
+      int move;
+      while ((move = movePicker.nextMove()) != Move.NONE) {
+        board.makeMove(move);
+        Pair<Pair<Integer, Integer>, Integer> rv = alphaBeta(board, alphaPos, betaPos, depth-1, 0);
+        int[] position = board.bitify();
         if (rv.first.first == 1) {
           bestMove = move;
-          betaPos = board;
+          betaPos = position;
         }
-        if (predict(betaPos.bitify(), board.bitify()).first == 1) break;
+        board.unmakeMove(move);
+        if (predict(betaPos, position).first == 1) break;
       }
       return new Pair<>(null, bestMove);
     }
@@ -0,0 +1,125 @@
+package murusgallicus.ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client of the evaluation server of scripts/model.py ("python3 model.py serve"). The server
+ * is started once and kept alive, so the networks are loaded only once, and the positions are
+ * sent as fixed-size binary feature vectors over its stdin, a whole batch per round trip.
+ * A request is the number of pairs followed by the 337 feature bytes of both positions of every
+ * pair, the response contains two float probabilities per pair. A client must not be used by
+ * several threads at once.
+ */
+public class ModelClient implements PositionComparator, AutoCloseable {
+
+  /**
+   * The command, that starts the server, and the directory it is started in, where the pickled
+   * networks are found.
+   */
+  public static final String[] DEFAULT_COMMAND = {"python3", "model.py", "serve"};
+  public static final String DEFAULT_DIRECTORY = "scripts";
+
+  private final Process process;
+  private final DataOutputStream output;
+  private final DataInputStream input;
+
+  /**
+   * The buffer for the features of a pair of positions.
+   */
+  private final byte[] pairBuffer = new byte[2 * NeuralNetwork.NUMBER_OF_FEATURES];
+
+  private long roundTrips;
+  private long comparisons;
+
+  /**
+   * Start the server of scripts/model.py.
+   * @throws IOException If the server cannot be started
+   */
+  public ModelClient() throws IOException {
+    this(new File(DEFAULT_DIRECTORY), DEFAULT_COMMAND);
+  }
+
+  /**
+   * Start a server, that speaks the protocol of scripts/model.py.
+   * @param directory The working directory of the server
+   * @param command The command, that starts the server
+   * @throws IOException If the server cannot be started
+   */
+  public ModelClient(File directory, String... command) throws IOException {
+    process = new ProcessBuilder(command)
+        .directory(directory)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    output = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16));
+    input = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 12));
+  }
+
+  /**
+   * Compare pairs of positions in a single round trip to the server.
+   * @throws UncheckedIOException If the server cannot be reached
+   */
+  @Override
+  public void compare(int[][] firsts, int[][] seconds, int offset, int count,
+      boolean[] firstIsBetter) {
+    if (count == 0) return;
+    try {
+      output.writeInt(count);
+      for (int i = offset; i < offset + count; i++) {
+        for (int f = 0; f < NeuralNetwork.NUMBER_OF_FEATURES; f++) {
+          pairBuffer[f] = (byte) firsts[i][f];
+          pairBuffer[NeuralNetwork.NUMBER_OF_FEATURES + f] = (byte) seconds[i][f];
+        }
+        output.write(pairBuffer);
+      }
+      output.flush();
+
+      for (int i = offset; i < offset + count; i++) {
+        float first = input.readFloat();
+        input.readFloat();
+        firstIsBetter[i] = first > 0.5f;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("The evaluation server cannot be reached", e);
+    }
+    roundTrips++;
+    comparisons += count;
+  }
+
+  /**
+   * Getter for the number of batches sent to the server.
+   */
+  public long getRoundTrips() {
+    return roundTrips;
+  }
+
+  /**
+   * Getter for the number of pairs of positions compared by the server.
+   */
+  public long getComparisons() {
+    return comparisons;
+  }
+
+  /**
+   * Stop the server by sending an empty batch and closing its stdin.
+   */
+  @Override
+  public void close() {
+    try {
+      output.writeInt(0);
+      output.close();
+      if (!process.waitFor(5, TimeUnit.SECONDS)) process.destroyForcibly();
+    } catch (IOException e) {
+      process.destroyForcibly();
+    } catch (InterruptedException e) {
+      process.destroyForcibly();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
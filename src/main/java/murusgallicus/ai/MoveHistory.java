@@ -0,0 +1,92 @@
+package murusgallicus.ai;
+
+import java.util.Arrays;
+import murusgallicus.core.Board;
+import murusgallicus.core.Move;
+
+/**
+ * The move ordering state, that a searcher collects during its search: two killer moves per ply,
+ * the quiet moves that caused the last cutoffs at that ply, and the history table, that counts
+ * the cutoffs of the quiet moves by their source and destination square. The quiet moves are
+ * sorted by their history score. The scores are halved at the start of every search, so that the
+ * cutoffs of earlier positions count less than the current ones.
+ */
+public final class MoveHistory {
+
+  /**
+   * The number of killer moves per ply.
+   */
+  static final int NUMBER_OF_KILLERS = 2;
+
+  /**
+   * The limit of a history score. When a score exceeds it, all the scores are halved.
+   */
+  static final int MAX_HISTORY_SCORE = 1 << 20;
+
+  private static final int NUMBER_OF_SQUARES = 56;
+
+  private final int[][] killers = new int[Board.MAX_PLY][NUMBER_OF_KILLERS];
+  private final int[] history = new int[NUMBER_OF_SQUARES * NUMBER_OF_SQUARES];
+
+  /**
+   * Getter for a killer move.
+   * @param ply The distance from the root
+   * @param slot The slot of the killer move, 0 for the most recent one
+   * @return The killer move, or {@link Move#NONE}
+   */
+  public int getKiller(int ply, int slot) {
+    return killers[ply][slot];
+  }
+
+  /**
+   * Getter for the history score of a move.
+   * @param move The integer encoding of the move
+   * @return The history score
+   */
+  public int getScore(int move) {
+    return history[index(move)];
+  }
+
+  /**
+   * Record a quiet move, that caused a cutoff. It becomes the first killer of its ply, and its
+   * history score grows with the square of the remaining depth, so that the cutoffs close to the
+   * root count more than the ones close to the leaves.
+   * @param move The integer encoding of the move
+   * @param ply The distance from the root
+   * @param depth The remaining depth
+   */
+  public void recordCutoff(int move, int ply, int depth) {
+    int[] killersOfPly = killers[ply];
+    if (killersOfPly[0] != move) {
+      killersOfPly[1] = killersOfPly[0];
+      killersOfPly[0] = move;
+    }
+    int index = index(move);
+    history[index] += depth * depth;
+    if (history[index] > MAX_HISTORY_SCORE) halveScores();
+  }
+
+  /**
+   * Halve all the history scores and remove the killer moves, at the start of a new search.
+   */
+  public void age() {
+    halveScores();
+    for (int[] killersOfPly: killers) Arrays.fill(killersOfPly, Move.NONE);
+  }
+
+  /**
+   * Remove all the killer moves and history scores.
+   */
+  public void clear() {
+    Arrays.fill(history, 0);
+    for (int[] killersOfPly: killers) Arrays.fill(killersOfPly, Move.NONE);
+  }
+
+  private void halveScores() {
+    for (int i = 0; i < history.length; i++) history[i] >>= 1;
+  }
+
+  private static int index(int move) {
+    return Move.getSourceSquare(move) * NUMBER_OF_SQUARES + Move.getDestinationSquare(move);
+  }
+}
@@ -0,0 +1,186 @@
+package murusgallicus.ai;
+
+import murusgallicus.core.Board;
+import murusgallicus.core.Move;
+
+/**
+ * A staged move picker for the search. The moves of a position are handed out one by one in the
+ * order hash move, captures (catapult shots and tower attacks on an enemy piece), killer moves
+ * and quiet moves (tower moves and catapult shots on empty squares), and each stage only gets
+ * generated, when the search asks for a move of it. If the first moves cause a cutoff, the
+ * remaining ones never get generated at all. The captures are sorted by the value of the
+ * attacked piece, and among equal victims by the lowest value of the attacker (MVV-LVA). With a
+ * {@link MoveHistory} the killer moves of the ply are tried before the other quiet moves, which
+ * are sorted by their history score. Without one, the quiet moves keep the order of the move
+ * generator.
+ */
+public class MovePicker {
+
+  private static final int STAGE_HASH_MOVE = 0;
+  private static final int STAGE_GENERATE_CAPTURES = 1;
+  private static final int STAGE_CAPTURES = 2;
+  private static final int STAGE_KILLERS = 3;
+  private static final int STAGE_GENERATE_QUIETS = 4;
+  private static final int STAGE_QUIETS = 5;
+  private static final int STAGE_DONE = 6;
+
+  /**
+   * The weight of the value of the attacked piece in the score of a capture, so that it always
+   * outweighs the value of the attacker.
+   */
+  private static final int VICTIM_WEIGHT = 8;
+
+  /**
+   * The buffers for the generated moves and their scores, which get reused for every position.
+   */
+  private final int[] moves = new int[Board.MAX_MOVES];
+  private final int[] scores = new int[Board.MAX_MOVES];
+
+  private Board board;
+  private MoveHistory history;
+  private int ply;
+  private int hashMove;
+  private int firstKiller;
+  private int secondKiller;
+  private int killerSlot;
+  private int stage;
+  private int index;
+  private int numberOfCaptures;
+  private int numberOfMoves;
+
+  /**
+   * Prepare the picker for a new position, without killer moves and history scores.
+   * @param board The board, whose moves are picked
+   * @param hashMove The best move found for the position earlier, or {@link Move#NONE}
+   */
+  public void init(Board board, int hashMove) {
+    init(board, hashMove, null, 0);
+  }
+
+  /**
+   * Prepare the picker for a new position.
+   * @param board The board, whose moves are picked
+   * @param hashMove The best move found for the position earlier, or {@link Move#NONE}
+   * @param history The killer moves and history scores of the search, or null
+   * @param ply The distance of the position from the root, which selects the killer moves
+   */
+  public void init(Board board, int hashMove, MoveHistory history, int ply) {
+    this.board = board;
+    this.hashMove = hashMove;
+    this.history = history;
+    this.ply = ply;
+    this.firstKiller = Move.NONE;
+    this.secondKiller = Move.NONE;
+    this.killerSlot = 0;
+    this.stage = STAGE_HASH_MOVE;
+    this.index = 0;
+    this.numberOfCaptures = 0;
+    this.numberOfMoves = 0;
+  }
+
+  /**
+   * Get the next move of the position.
+   * @return The integer encoding of the next move, or {@link Move#NONE}, if there are no more moves
+   */
+  public int nextMove() {
+    while (true) {
+      switch (stage) {
+        case STAGE_HASH_MOVE:
+          stage = STAGE_GENERATE_CAPTURES;
+          if (board.isPseudoLegal(hashMove)) return hashMove;
+          hashMove = Move.NONE;
+          break;
+        case STAGE_GENERATE_CAPTURES:
+          generateCaptures();
+          stage = STAGE_CAPTURES;
+          break;
+        case STAGE_CAPTURES:
+          while (index < numberOfCaptures) {
+            int move = pickBest(numberOfCaptures);
+            if (move != hashMove) return move;
+          }
+          stage = STAGE_KILLERS;
+          break;
+        case STAGE_KILLERS:
+          if (history != null && killerSlot < MoveHistory.NUMBER_OF_KILLERS) {
+            int killer = history.getKiller(ply, killerSlot++);
+            if (isPlayableKiller(killer)) {
+              if (firstKiller == Move.NONE) firstKiller = killer;
+              else secondKiller = killer;
+              return killer;
+            }
+            break;
+          }
+          stage = STAGE_GENERATE_QUIETS;
+          break;
+        case STAGE_GENERATE_QUIETS:
+          generateQuiets();
+          stage = STAGE_QUIETS;
+          break;
+        case STAGE_QUIETS:
+          while (index < numberOfMoves) {
+            int move = (history == null) ? moves[index++] : pickBest(numberOfMoves);
+            if (move != hashMove && move != firstKiller && move != secondKiller) return move;
+          }
+          stage = STAGE_DONE;
+          break;
+        default:
+          return Move.NONE;
+      }
+    }
+  }
+
+  /**
+   * Generate the attack moves and move the captures to the front of the buffer, scored by
+   * MVV-LVA. The catapult shots on empty squares stay behind them and are picked with the quiet
+   * moves.
+   */
+  private void generateCaptures() {
+    numberOfMoves = board.generateAttackMoves(moves, 0);
+    for (int i = 0; i < numberOfMoves; i++) {
+      int move = moves[i];
+      if (!Move.isCapture(move)) continue;
+      moves[i] = moves[numberOfCaptures];
+      moves[numberOfCaptures] = move;
+      scores[numberOfCaptures++] =
+          VICTIM_WEIGHT * Move.getCapturedValue(move) - Move.getMovingValue(move);
+    }
+  }
+
+  /**
+   * Generate the quiet tower moves behind the catapult shots on empty squares and score all of
+   * them by their history score.
+   */
+  private void generateQuiets() {
+    numberOfMoves = board.generateQuietMoves(moves, numberOfMoves);
+    if (history == null) return;
+    for (int i = index; i < numberOfMoves; i++) scores[i] = history.getScore(moves[i]);
+  }
+
+  /**
+   * Check whether a killer move can be played in the position as a quiet move, and has not been
+   * picked already as the hash move or the other killer move.
+   */
+  private boolean isPlayableKiller(int killer) {
+    return killer != Move.NONE && killer != hashMove && killer != firstKiller
+        && !Move.isCapture(killer) && board.isPseudoLegal(killer);
+  }
+
+  /**
+   * Swap the move with the highest score of the rest of the current stage to the front of it, by
+   * one step of a selection sort, so that only the moves, that are really searched, get sorted.
+   * @param end The end of the current stage in the buffer
+   * @return The move with the highest score, which is removed from the stage
+   */
+  private int pickBest(int end) {
+    int best = index;
+    for (int i = index + 1; i < end; i++) {
+      if (scores[i] > scores[best]) best = i;
+    }
+    int move = moves[best];
+    moves[best] = moves[index];
+    scores[best] = scores[index];
+    index++;
+    return move;
+  }
+}
@@ -0,0 +1,446 @@
+package murusgallicus.ai;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import murusgallicus.core.Accumulator;
+
+/**
+ * The forward pass of the trained networks of scripts/model.py in plain Java. The weights are
+ * exported by scripts/export_weights.py into a flat big-endian file, which is loaded once into
+ * float arrays. A position is encoded by the deep belief network (a stack of RBMs) into a short
+ * feature vector, and the multi-layer perceptron compares the encodings of two positions.
+ * All the intermediate results are kept in buffers of the network, so a network must not be used
+ * by several threads at once.
+ */
+public class NeuralNetwork implements PositionComparator {
+
+  /**
+   * The file the weights are loaded from by default, relative to the working directory. It can be
+   * overridden with the system property murusgallicus.weights.
+   */
+  public static final String DEFAULT_WEIGHTS_FILE = "scripts/model_weights.bin";
+
+  /**
+   * The number of inputs of the encoder: six bitboards of 56 squares and the player to move.
+   */
+  public static final int NUMBER_OF_FEATURES = 337;
+
+  /**
+   * The first bytes of a weights file, "MGNN".
+   */
+  static final int MAGIC = 0x4D474E4E;
+  static final int VERSION = 1;
+
+  static final int IDENTITY = 0;
+  static final int RELU = 1;
+  static final int LOGISTIC = 2;
+
+  /**
+   * A dense layer: out = f(weights * in + biases), with the weights stored row by row, one row
+   * per output unit.
+   */
+  private static final class Layer {
+    final int inputs;
+    final int outputs;
+    final int activation;
+    final float[] weights;
+    final float[] biases;
+
+    Layer(int inputs, int outputs, int activation, float[] weights, float[] biases) {
+      this.inputs = inputs;
+      this.outputs = outputs;
+      this.activation = activation;
+      this.weights = weights;
+      this.biases = biases;
+    }
+
+    void forward(float[] in, int inOffset, float[] out, int outOffset) {
+      for (int o = 0; o < outputs; o++) {
+        float sum = biases[o] + VectorMath.dot(weights, o * inputs, in, inOffset, inputs);
+        out[outOffset + o] = activate(sum, activation);
+      }
+    }
+
+    /**
+     * The forward pass of a batch, with the inputs and the outputs packed row by row. The rows of
+     * the weights are the outer loop, so that every row of weights is loaded once per batch.
+     */
+    void forward(float[] in, float[] out, int rows) {
+      for (int o = 0; o < outputs; o++) {
+        int row = o * inputs;
+        for (int r = 0; r < rows; r++) {
+          float sum = biases[o] + VectorMath.dot(weights, row, in, r * inputs, inputs);
+          out[r * outputs + o] = activate(sum, activation);
+        }
+      }
+    }
+  }
+
+  private final Layer[] encoder;
+  private final Layer[] classifier;
+
+  /**
+   * The weights of the first encoder layer stored column by column, one column per input feature.
+   * The features of a position are sparse and binary, so the first layer is computed by adding the
+   * columns of the features, that are set.
+   */
+  private final float[] firstLayerColumns;
+
+  /**
+   * The buffers for the outputs of every layer, the last encoder buffer holds both encodings.
+   */
+  private final float[][] encoderBuffers;
+  private final float[][] classifierBuffers;
+
+  /**
+   * The buffers of the batched forward pass, which grow with the largest batch. The positions of a
+   * batch are encoded only once, even if they appear in several pairs, like the reference position
+   * all the leaves of a node are compared with. They are told apart by identity.
+   */
+  private int batchCapacity;
+  private float[][] batchEncoderBuffers;
+  private float[][] batchClassifierBuffers;
+  private float[] batchClassifierInput;
+  private int[] firstRows;
+  private int[] secondRows;
+  private int[][] uniquePositions;
+  private int[][] positionTable;
+  private int[] positionTableRows;
+  private float[] batchProbabilities;
+
+  private NeuralNetwork(Layer[] encoder, Layer[] classifier) {
+    this.encoder = encoder;
+    this.classifier = classifier;
+
+    Layer first = encoder[0];
+    firstLayerColumns = new float[first.inputs * first.outputs];
+    for (int o = 0; o < first.outputs; o++) {
+      for (int i = 0; i < first.inputs; i++) {
+        firstLayerColumns[i * first.outputs + o] = first.weights[o * first.inputs + i];
+      }
+    }
+
+    encoderBuffers = new float[encoder.length][];
+    for (int i = 0; i < encoder.length - 1; i++) encoderBuffers[i] = new float[encoder[i].outputs];
+    encoderBuffers[encoder.length - 1] = new float[2 * getEncodingSize()];
+    classifierBuffers = new float[classifier.length][];
+    for (int i = 0; i < classifier.length; i++) {
+      classifierBuffers[i] = new float[classifier[i].outputs];
+    }
+  }
+
+  /**
+   * Load the network from the default weights file.
+   * @return The network
+   * @throws IOException If the file cannot be read or is not a weights file
+   */
+  public static NeuralNetwork load() throws IOException {
+    return load(Paths.get(System.getProperty("murusgallicus.weights", DEFAULT_WEIGHTS_FILE)));
+  }
+
+  /**
+   * Load the network from a weights file.
+   * @param file The file written by scripts/export_weights.py
+   * @return The network
+   * @throws IOException If the file cannot be read or is not a weights file
+   */
+  public static NeuralNetwork load(Path file) throws IOException {
+    try (InputStream stream = Files.newInputStream(file)) {
+      return load(stream);
+    }
+  }
+
+  /**
+   * Load the network from a stream in the format of scripts/export_weights.py.
+   * @param stream The stream, which is not closed
+   * @return The network
+   * @throws IOException If the stream cannot be read or does not contain weights
+   */
+  public static NeuralNetwork load(InputStream stream) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+    if (input.readInt() != MAGIC) throw new IOException("Not a weights file");
+    int version = input.readInt();
+    if (version != VERSION) throw new IOException("Unsupported weights file version " + version);
+
+    Layer[] encoder = readLayers(input);
+    Layer[] classifier = readLayers(input);
+    if (encoder.length == 0 || classifier.length == 0)
+      throw new IOException("The weights file does not contain both networks");
+    if (encoder[0].inputs != NUMBER_OF_FEATURES)
+      throw new IOException("The encoder has " + encoder[0].inputs + " inputs");
+    for (int i = 1; i < encoder.length; i++) {
+      if (encoder[i].inputs != encoder[i - 1].outputs)
+        throw new IOException("The sizes of encoder layer " + i + " do not match");
+    }
+    if (classifier[0].inputs != 2 * encoder[encoder.length - 1].outputs)
+      throw new IOException("The classifier does not take two encodings");
+    for (int i = 1; i < classifier.length; i++) {
+      if (classifier[i].inputs != classifier[i - 1].outputs)
+        throw new IOException("The sizes of classifier layer " + i + " do not match");
+    }
+    return new NeuralNetwork(encoder, classifier);
+  }
+
+  private static Layer[] readLayers(DataInputStream input) throws IOException {
+    Layer[] layers = new Layer[input.readInt()];
+    for (int l = 0; l < layers.length; l++) {
+      int inputs = input.readInt();
+      int outputs = input.readInt();
+      int activation = input.readInt();
+      if (inputs <= 0 || outputs <= 0 || activation < IDENTITY || activation > LOGISTIC)
+        throw new IOException("Invalid layer " + l);
+      float[] weights = new float[inputs * outputs];
+      for (int i = 0; i < weights.length; i++) weights[i] = input.readFloat();
+      float[] biases = new float[outputs];
+      for (int i = 0; i < biases.length; i++) biases[i] = input.readFloat();
+      layers[l] = new Layer(inputs, outputs, activation, weights, biases);
+    }
+    return layers;
+  }
+
+  private static float activate(float x, int activation) {
+    switch (activation) {
+      case RELU: return (x > 0) ? x : 0;
+      case LOGISTIC: return (float) (1 / (1 + Math.exp(-x)));
+      default: return x;
+    }
+  }
+
+  /**
+   * Getter for the number of features a position is encoded into.
+   */
+  public int getEncodingSize() {
+    return encoder[encoder.length - 1].outputs;
+  }
+
+  /**
+   * Encode a position with the deep belief network.
+   * @param features The features of the position, as returned by Board.bitify()
+   * @param encoding The array to write the encoding to
+   * @param offset The index of the first value of the encoding
+   */
+  public void encode(int[] features, float[] encoding, int offset) {
+    float[] out = (encoder.length == 1) ? encoding : encoderBuffers[0];
+    int outOffset = (encoder.length == 1) ? offset : 0;
+    computeFirstLayer(features, out, outOffset);
+    computeHiddenLayers(encoding, offset);
+  }
+
+  /**
+   * Encode a position, whose first layer has been accumulated incrementally by the board. Only
+   * the activation of the first layer and the later, smaller layers are computed.
+   * @param accumulator The accumulator of the position, created by {@link #createAccumulator()}
+   * @param encoding The array to write the encoding to
+   * @param offset The index of the first value of the encoding
+   */
+  public void encode(Accumulator accumulator, float[] encoding, int offset) {
+    Layer first = encoder[0];
+    float[] values = accumulator.values();
+    float[] out = (encoder.length == 1) ? encoding : encoderBuffers[0];
+    int outOffset = (encoder.length == 1) ? offset : 0;
+    for (int o = 0; o < first.outputs; o++) {
+      out[outOffset + o] = activate(values[o], first.activation);
+    }
+    computeHiddenLayers(encoding, offset);
+  }
+
+  /**
+   * Run the encoder layers after the first one on the output of the first one.
+   */
+  private void computeHiddenLayers(float[] encoding, int offset) {
+    for (int l = 1; l < encoder.length; l++) {
+      boolean last = l == encoder.length - 1;
+      encoder[l].forward(encoderBuffers[l - 1], 0,
+          last ? encoding : encoderBuffers[l], last ? offset : 0);
+    }
+  }
+
+  /**
+   * Create an accumulator of the first encoder layer, which can be attached to a board with
+   * Board.setAccumulator, so that the first layer is updated with every move.
+   * @return The accumulator, that shares the weights of the network
+   */
+  public Accumulator createAccumulator() {
+    return new Accumulator(firstLayerColumns, encoder[0].biases);
+  }
+
+  /**
+   * Compare a position, whose first layer has been accumulated by the board, with another one.
+   * @param first The accumulator of the first position
+   * @param second The features of the second position
+   * @return true, if the first position is predicted to be the better one
+   */
+  public boolean isFirstBetter(Accumulator first, int[] second) {
+    float[] encodings = encoderBuffers[encoder.length - 1];
+    encode(first, encodings, 0);
+    encode(second, encodings, getEncodingSize());
+    float[] probabilities = classifierBuffers[classifier.length - 1];
+    predict(encodings, probabilities);
+    return probabilities[0] > 0.5f;
+  }
+
+  /**
+   * Compute the first encoder layer by adding the columns of the weights of the set features.
+   */
+  private void computeFirstLayer(int[] features, float[] out, int outOffset) {
+    Layer first = encoder[0];
+    System.arraycopy(first.biases, 0, out, outOffset, first.outputs);
+    for (int i = 0; i < NUMBER_OF_FEATURES; i++) {
+      if (features[i] == 0) continue;
+      int column = i * first.outputs;
+      if (features[i] == 1) {
+        VectorMath.add(firstLayerColumns, column, out, outOffset, first.outputs);
+      } else {
+        for (int o = 0; o < first.outputs; o++) {
+          out[outOffset + o] += features[i] * firstLayerColumns[column + o];
+        }
+      }
+    }
+    for (int o = 0; o < first.outputs; o++) {
+      out[outOffset + o] = activate(out[outOffset + o], first.activation);
+    }
+  }
+
+  /**
+   * Compare two positions with the classifier.
+   * @param first The features of the first position
+   * @param second The features of the second position
+   * @param probabilities The array to write the probabilities to, that the first and that the
+   *                      second position is the better one for the romans
+   */
+  public void predict(int[] first, int[] second, float[] probabilities) {
+    float[] encodings = encoderBuffers[encoder.length - 1];
+    encode(first, encodings, 0);
+    encode(second, encodings, getEncodingSize());
+    predict(encodings, probabilities);
+  }
+
+  /**
+   * Compare two encoded positions with the classifier.
+   * @param encodings The encodings of the first and the second position one after the other
+   * @param probabilities The array to write the two outputs of the classifier to
+   */
+  public void predict(float[] encodings, float[] probabilities) {
+    float[] in = encodings;
+    for (int l = 0; l < classifier.length; l++) {
+      classifier[l].forward(in, 0, classifierBuffers[l], 0);
+      in = classifierBuffers[l];
+    }
+    System.arraycopy(in, 0, probabilities, 0, Math.min(in.length, probabilities.length));
+  }
+
+  /**
+   * Compare two positions the way scripts/model.py predicts them.
+   * @param first The features of the first position
+   * @param second The features of the second position
+   * @return true, if the first position is predicted to be the better one
+   */
+  public boolean isFirstBetter(int[] first, int[] second) {
+    float[] probabilities = classifierBuffers[classifier.length - 1];
+    predict(first, second, probabilities);
+    return probabilities[0] > 0.5f;
+  }
+
+  /**
+   * Compare a batch of pairs of positions. Every distinct position is encoded once, and all the
+   * layers run on the packed matrix of the batch, using the Vector API if it is available.
+   * @param firsts The features of the first positions
+   * @param seconds The features of the second positions
+   * @param offset The index of the first pair to compare
+   * @param count The number of pairs to compare
+   * @param probabilities The array to write the two outputs of the classifier for every pair to,
+   *                      at the indices 2 * i and 2 * i + 1 for the pair offset + i
+   */
+  public void predict(int[][] firsts, int[][] seconds, int offset, int count,
+      float[] probabilities) {
+    if (count <= 0) return;
+    ensureBatchCapacity(count);
+    Arrays.fill(positionTable, null);
+    int numberOfPositions = 0;
+    for (int i = 0; i < count; i++) {
+      firstRows[i] = findRow(firsts[offset + i], numberOfPositions);
+      if (firstRows[i] == numberOfPositions) numberOfPositions++;
+      secondRows[i] = findRow(seconds[offset + i], numberOfPositions);
+      if (secondRows[i] == numberOfPositions) numberOfPositions++;
+    }
+
+    int hidden = encoder[0].outputs;
+    for (int r = 0; r < numberOfPositions; r++) {
+      computeFirstLayer(uniquePositions[r], batchEncoderBuffers[0], r * hidden);
+    }
+    for (int l = 1; l < encoder.length; l++) {
+      encoder[l].forward(batchEncoderBuffers[l - 1], batchEncoderBuffers[l], numberOfPositions);
+    }
+
+    int encodingSize = getEncodingSize();
+    float[] encodings = batchEncoderBuffers[encoder.length - 1];
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(encodings, firstRows[i] * encodingSize,
+          batchClassifierInput, 2 * i * encodingSize, encodingSize);
+      System.arraycopy(encodings, secondRows[i] * encodingSize,
+          batchClassifierInput, (2 * i + 1) * encodingSize, encodingSize);
+    }
+    float[] in = batchClassifierInput;
+    for (int l = 0; l < classifier.length; l++) {
+      classifier[l].forward(in, batchClassifierBuffers[l], count);
+      in = batchClassifierBuffers[l];
+    }
+
+    int outputs = classifier[classifier.length - 1].outputs;
+    for (int i = 0; i < count; i++) {
+      probabilities[2 * i] = in[i * outputs];
+      probabilities[2 * i + 1] = in[i * outputs + 1];
+    }
+  }
+
+  /**
+   * Find the row of a position in the batch, or add it as the next row.
+   */
+  private int findRow(int[] position, int numberOfPositions) {
+    int mask = positionTable.length - 1;
+    int index = System.identityHashCode(position) & mask;
+    while (positionTable[index] != null) {
+      if (positionTable[index] == position) return positionTableRows[index];
+      index = (index + 1) & mask;
+    }
+    positionTable[index] = position;
+    positionTableRows[index] = numberOfPositions;
+    uniquePositions[numberOfPositions] = position;
+    return numberOfPositions;
+  }
+
+  private void ensureBatchCapacity(int count) {
+    if (count <= batchCapacity) return;
+    batchCapacity = Math.max(count, 2 * batchCapacity);
+    batchEncoderBuffers = new float[encoder.length][];
+    for (int l = 0; l < encoder.length; l++) {
+      batchEncoderBuffers[l] = new float[2 * batchCapacity * encoder[l].outputs];
+    }
+    batchClassifierInput = new float[batchCapacity * classifier[0].inputs];
+    batchClassifierBuffers = new float[classifier.length][];
+    for (int l = 0; l < classifier.length; l++) {
+      batchClassifierBuffers[l] = new float[batchCapacity * classifier[l].outputs];
+    }
+    firstRows = new int[batchCapacity];
+    secondRows = new int[batchCapacity];
+    uniquePositions = new int[2 * batchCapacity][];
+    positionTable = new int[Integer.highestOneBit(4 * batchCapacity - 1) << 1][];
+    positionTableRows = new int[positionTable.length];
+    batchProbabilities = new float[2 * batchCapacity];
+  }
+
+  @Override
+  public void compare(int[][] firsts, int[][] seconds, int offset, int count,
+      boolean[] firstIsBetter) {
+    if (count <= 0) return;
+    ensureBatchCapacity(count);
+    predict(firsts, seconds, offset, count, batchProbabilities);
+    for (int i = 0; i < count; i++) firstIsBetter[offset + i] = batchProbabilities[2 * i] > 0.5f;
+  }
+}
@@ -0,0 +1,20 @@
+package murusgallicus.ai;
+
+/**
+ * An evaluator, that compares two positions with each other, like the networks of scripts/model.py
+ * do. The comparisons are handed over in batches, so that evaluators with a high cost per call,
+ * like an external process, can score many positions at once.
+ */
+public interface PositionComparator {
+
+  /**
+   * Compare pairs of positions.
+   * @param firsts The features of the first positions, as returned by Board.bitify()
+   * @param seconds The features of the second positions
+   * @param offset The index of the first pair to compare
+   * @param count The number of pairs to compare
+   * @param firstIsBetter The array to write the results to at the indices of the pairs, true, if
+   *                      the first position of a pair is predicted to be the better one
+   */
+  void compare(int[][] firsts, int[][] seconds, int offset, int count, boolean[] firstIsBetter);
+}
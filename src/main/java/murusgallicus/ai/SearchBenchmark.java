@@ -0,0 +1,83 @@
+package murusgallicus.ai;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import murusgallicus.core.Board;
+
+/**
+ * The benchmark of the parallel search. It measures the time to depth: the time the negamax
+ * search needs to complete a fixed depth on a set of positions, with a growing number of threads
+ * in the Lazy SMP or the Young Brothers Wait mode, and the speedup over a single thread. The
+ * transposition table is cleared before every position, so that the runs do not profit from each
+ * other.
+ */
+public class SearchBenchmark {
+
+  private SearchBenchmark() {}
+
+  /**
+   * Search all the positions to a fixed depth.
+   * @param positions The FEN strings of the positions
+   * @param depth The depth of the search
+   * @return The time in ms, the number of nodes, the number of cutoffs and the number of first
+   *         move cutoffs, summed up over all the positions
+   */
+  private static long[] run(List<String> positions, int depth) {
+    long time = 0;
+    long nodes = 0;
+    long cutoffs = 0;
+    long firstMoveCutoffs = 0;
+    for (String fen: positions) {
+      Board board = new Board(fen);
+      MiniMax.getTranspositionTable().clear();
+      long before = System.nanoTime();
+      SearchResult result = MiniMax.search(board, depth, Long.MAX_VALUE);
+      time += System.nanoTime() - before;
+      nodes += result.nodes;
+      cutoffs += result.cutoffs;
+      firstMoveCutoffs += result.firstMoveCutoffs;
+    }
+    return new long[] {time / 1000000, nodes, cutoffs, firstMoveCutoffs};
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println(
+          "Usage: SearchBenchmark depth positionsFile [maxThreads] [positions] [lazysmp | ybwc]");
+      return;
+    }
+    int depth = Integer.parseInt(args[0]);
+    int maxThreads = (args.length > 2)
+        ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int numberOfPositions = (args.length > 3) ? Integer.parseInt(args[3]) : 20;
+    MiniMax.setYoungBrothersWait(args.length > 4 && args[4].equals("ybwc"));
+
+    List<String> positions = new ArrayList<>();
+    for (String fen: Files.readAllLines(Paths.get(args[1]))) {
+      if (fen.trim().isEmpty()) continue;
+      positions.add(fen.trim());
+      if (positions.size() == numberOfPositions) break;
+    }
+
+    // Warm up the JIT compiler on the first position
+    MiniMax.setThreads(1);
+    run(positions.subList(0, 1), depth);
+
+    long singleThreadTime = 0;
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      MiniMax.setThreads(threads);
+      long[] result = run(positions, depth);
+      if (threads == 1) singleThreadTime = result[0];
+      System.out.printf("Threads: %d, time to depth %d: %d ms, nodes: %d, speedup: %.2f%n",
+          threads, depth, result[0], result[1], singleThreadTime / (double) Math.max(1, result[0]));
+      if (result[2] > 0) {
+        System.out.printf("  First move cutoffs: %d of %d (%.1f%%)%n",
+            result[3], result[2], 100.0 * result[3] / result[2]);
+      }
+    }
+    MiniMax.setThreads(1);
+  }
+}
@@ -0,0 +1,53 @@
+package murusgallicus.ai;
+
+/**
+ * The result of one negamax search: the best move of the root, its score, the depth of the last
+ * completed iteration and the statistics of the search, summed up over all of its threads.
+ */
+final class SearchResult {
+
+  /**
+   * The integer encoding of the best move of the root.
+   */
+  final int bestMove;
+
+  /**
+   * The score of the root from the view of the player to move.
+   */
+  final int score;
+
+  /**
+   * The depth of the last completed iteration.
+   */
+  final int depth;
+
+  /**
+   * The number of nodes searched.
+   */
+  final long nodes;
+
+  /**
+   * The number of beta cutoffs, and how many of them were caused by the first move searched at
+   * the node, which measures the quality of the move ordering.
+   */
+  final long cutoffs;
+  final long firstMoveCutoffs;
+
+  SearchResult(int bestMove, int score, int depth, long nodes, long cutoffs,
+      long firstMoveCutoffs) {
+    this.bestMove = bestMove;
+    this.score = score;
+    this.depth = depth;
+    this.nodes = nodes;
+    this.cutoffs = cutoffs;
+    this.firstMoveCutoffs = firstMoveCutoffs;
+  }
+
+  /**
+   * Format the share of the beta cutoffs, that were caused by the first move searched at the node.
+   */
+  String formatCutoffRate() {
+    return "First move cutoffs: " + firstMoveCutoffs + " of " + cutoffs
+        + ((cutoffs > 0) ? String.format(" (%.1f%%)", 100.0 * firstMoveCutoffs / cutoffs) : "");
+  }
+}
@@ -0,0 +1,233 @@
+package murusgallicus.ai;
+
+import murusgallicus.core.Board;
+import murusgallicus.core.Move;
+
+/**
+ * The state of one thread of the negamax search: its own board, move pickers, killer moves,
+ * history table and principal variation table. Only the transposition table is shared, so several
+ * searchers can search the same root at once, which is the Lazy SMP mode of {@link MiniMax}. A
+ * searcher, that is stopped, returns from every node at once, without storing anything in the
+ * transposition table.
+ */
+class Searcher {
+
+  /**
+   * The board the searcher works on, a copy of the root position.
+   */
+  final Board board = new Board("8/8/8/8/8/8/8 r");
+
+  /**
+   * The move pickers for every ply of the search, so that no moves get allocated during it.
+   */
+  private final MovePicker[] movePickers = new MovePicker[Board.MAX_PLY];
+
+  /**
+   * The triangular principal variation table: the line found at every ply starts at index ply of
+   * its row and ends before the length of that ply.
+   */
+  private final int[][] pvTable = new int[Board.MAX_PLY][Board.MAX_PLY];
+  private final int[] pvLength = new int[Board.MAX_PLY];
+
+  /**
+   * The principal variation of the last completed iteration, which is searched first in the next
+   * one, as long as the search follows it.
+   */
+  private final int[] previousPv = new int[Board.MAX_PLY];
+  private int previousPvLength;
+  private boolean followPv;
+
+  /**
+   * The killer moves and the history table of the move ordering, which are aged at the start of
+   * every search, so that the history of the previous moves of the game still helps.
+   */
+  final MoveHistory history = new MoveHistory();
+
+  private TranspositionTable transpositionTable;
+
+  /**
+   * Set by another thread to abort the search.
+   */
+  volatile boolean stopped;
+
+  /**
+   * The statistics and the result of the search.
+   */
+  long nodes;
+  long cutoffs;
+  long firstMoveCutoffs;
+  int completedDepth;
+  int score;
+
+  Searcher() {
+    for (int i = 0; i < movePickers.length; i++) movePickers[i] = new MovePicker();
+  }
+
+  /**
+   * Prepare a new search.
+   * @param root The root position, which is copied into the board of the searcher
+   * @param table The shared transposition table
+   */
+  void prepare(Board root, TranspositionTable table) {
+    root.copyInto(board);
+    transpositionTable = table;
+    previousPvLength = 0;
+    history.age();
+    nodes = 0;
+    cutoffs = 0;
+    firstMoveCutoffs = 0;
+    completedDepth = 0;
+    score = 0;
+    stopped = false;
+  }
+
+  /**
+   * Search iteratively deeper, until the last depth is reached, a won or lost game is found, or
+   * the searcher is stopped.
+   * @param firstDepth The depth of the first iteration
+   * @param lastDepth The depth of the last iteration
+   */
+  void iterate(int firstDepth, int lastDepth) {
+    for (int depth = firstDepth; depth <= lastDepth && !stopped; depth++) {
+      search(depth);
+      if (Math.abs(score) >= MiniMax.MATE_BOUND) break;
+    }
+  }
+
+  /**
+   * Search the root to a fixed depth. If the search is not stopped, the result becomes the best
+   * move, the score and the principal variation of the searcher.
+   * @param depth The depth of the search
+   */
+  void search(int depth) {
+    followPv = true;
+    int result = negamax(depth, 0, -MiniMax.INFINITY, MiniMax.INFINITY);
+    if (stopped) return;
+    score = result;
+    completedDepth = depth;
+    previousPvLength = pvLength[0];
+    System.arraycopy(pvTable[0], 0, previousPv, 0, previousPvLength);
+  }
+
+  /**
+   * Getter for the best move of the last completed iteration.
+   * @return The best move, or {@link Move#NONE}, if there is none
+   */
+  int getBestMove() {
+    return (previousPvLength > 0) ? previousPv[0] : Move.NONE;
+  }
+
+  /**
+   * Format the principal variation of the last completed iteration.
+   */
+  String formatPv() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < previousPvLength; i++) {
+      if (i > 0) builder.append(' ');
+      builder.append(Move.toString(previousPv[i]));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * The negamax alpha-beta search on the ratings of the board. The scores are from the view of
+   * the player to move, every node works on the int scores and int moves only, and the best line
+   * is collected in the triangular principal variation table, so that no node allocates anything.
+   * The result of every inner node is stored in the transposition table, whose entries cut off
+   * the search of a position, that has been searched deep enough before, and otherwise give the
+   * move to search first, so that every iteration reuses the work of the previous one. A quiet
+   * move, that causes a cutoff, is recorded as a killer move and in the history table.
+   * @param depth The remaining depth
+   * @param ply The distance from the root
+   * @param alpha The score the player to move is already guaranteed
+   * @param beta The score the opponent is already guaranteed
+   * @return The score of the position, or a bound on it outside of the window
+   */
+  private int negamax(int depth, int ply, int alpha, int beta) {
+    nodes++;
+    pvLength[ply] = ply;
+    if (board.isGameOver()) {
+      int rating = board.getRating();
+      return (rating > 0) ? rating - ply : rating + ply;
+    }
+    if (depth == 0) return board.getRating(alpha, beta);
+
+    long key = board.getZobristKey();
+    long entry = transpositionTable.probe(key);
+    int hashMove = Move.NONE;
+    if (entry != 0) {
+      hashMove = TranspositionTable.getMove(entry);
+      if (ply > 0 && TranspositionTable.getDepth(entry) >= depth) {
+        int score = scoreFromTable(TranspositionTable.getScore(entry), ply);
+        int bound = TranspositionTable.getBound(entry);
+        if (bound == TranspositionTable.EXACT
+            || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+            || (bound == TranspositionTable.UPPER_BOUND && score <= alpha))
+          return score;
+      }
+    }
+
+    if (followPv) {
+      if (ply < previousPvLength) hashMove = previousPv[ply];
+      else followPv = false;
+    }
+    MovePicker movePicker = movePickers[ply];
+    movePicker.init(board, hashMove, history, ply);
+    int originalAlpha = alpha;
+    int bestScore = -MiniMax.INFINITY;
+    int bestMove = Move.NONE;
+    int movesSearched = 0;
+    int move;
+    while ((move = movePicker.nextMove()) != Move.NONE) {
+      movesSearched++;
+      if (move != hashMove) followPv = false;
+      board.makeMove(move);
+      int score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+      board.unmakeMove(move);
+      if (stopped) return 0;
+
+      if (score > bestScore) {
+        bestScore = score;
+        bestMove = move;
+        if (score > alpha) {
+          alpha = score;
+          pvTable[ply][ply] = move;
+          System.arraycopy(pvTable[ply + 1], ply + 1, pvTable[ply], ply + 1,
+              pvLength[ply + 1] - ply - 1);
+          pvLength[ply] = pvLength[ply + 1];
+          if (score >= beta) {
+            cutoffs++;
+            if (movesSearched == 1) firstMoveCutoffs++;
+            if (!Move.isCapture(move)) history.recordCutoff(move, ply, depth);
+            break;
+          }
+        }
+      }
+    }
+    if (bestScore == -MiniMax.INFINITY) return MiniMax.NO_MOVES + ply;
+
+    int bound = (bestScore <= originalAlpha) ? TranspositionTable.UPPER_BOUND
+        : (bestScore >= beta) ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+    transpositionTable.store(key, bestMove, bound, depth, scoreToTable(bestScore, ply));
+    return bestScore;
+  }
+
+  /**
+   * Convert a score for the transposition table, so that the won and lost games are stored
+   * relative to the position instead of the root.
+   */
+  private static int scoreToTable(int score, int ply) {
+    if (score >= MiniMax.MATE_BOUND) return score + ply;
+    if (score <= -MiniMax.MATE_BOUND) return score - ply;
+    return score;
+  }
+
+  /**
+   * Convert a score of the transposition table back to a score relative to the root.
+   */
+  private static int scoreFromTable(int score, int ply) {
+    if (score >= MiniMax.MATE_BOUND) return score - ply;
+    if (score <= -MiniMax.MATE_BOUND) return score + ply;
+    return score;
+  }
+}
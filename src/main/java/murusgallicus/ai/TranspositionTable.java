@@ -0,0 +1,210 @@
+package murusgallicus.ai;
+
+import java.util.Arrays;
+
+/**
+ * The transposition table of the search. It is a preallocated long array of buckets with four
+ * entries each, so that a bucket fills a cache line. An entry stores the Zobrist key XORed with
+ * the data and the data itself, so that a torn entry, written by two threads at once, fails the
+ * key check and is treated as a miss. The data packs the best move, the bound type, the depth,
+ * the generation of the search and the score:
+ * <pre>
+ *   bits  0-19  best move
+ *   bits 20-21  bound type (0 if the entry is empty)
+ *   bits 22-29  depth
+ *   bits 30-37  generation
+ *   bits 38-63  score (signed)
+ * </pre>
+ * A new entry replaces the entry of the same position, or else an empty entry, or else the
+ * shallowest entry of an earlier search, or else the shallowest entry of the bucket.
+ */
+public final class TranspositionTable {
+
+  /**
+   * The bound types of the scores.
+   */
+  public static final int UPPER_BOUND = 1;
+  public static final int LOWER_BOUND = 2;
+  public static final int EXACT = 3;
+
+  /**
+   * The default size of the table in MB.
+   */
+  public static final int DEFAULT_SIZE_IN_MB = 32;
+
+  private static final int BUCKET_SIZE = 4;
+  private static final int ENTRY_SIZE = 2;
+
+  private static final long MOVE_MASK = 0xFFFFF;
+  private static final int BOUND_SHIFT = 20;
+  private static final int DEPTH_SHIFT = 22;
+  private static final int GENERATION_SHIFT = 30;
+  private static final int SCORE_SHIFT = 38;
+
+  private final long[] entries;
+  private final int mask;
+
+  /**
+   * The generation of the entries, that are stored now.
+   */
+  private int generation;
+
+  /**
+   * The statistics of the table. They are not synchronized, so they are only approximate, when the
+   * table is shared between threads.
+   */
+  private long hits;
+  private long misses;
+
+  /**
+   * Create a table.
+   * @param sizeInMB The size of the table in MB, which is rounded down to a power of two buckets
+   */
+  public TranspositionTable(int sizeInMB) {
+    if (sizeInMB <= 0) throw new IllegalArgumentException("Invalid table size: " + sizeInMB);
+    long requestedBuckets = sizeInMB * 1024L * 1024L / (8 * BUCKET_SIZE * ENTRY_SIZE);
+    int numberOfBuckets = Integer.highestOneBit(
+        (int) Math.min(Integer.MAX_VALUE / (BUCKET_SIZE * ENTRY_SIZE), requestedBuckets));
+    this.entries = new long[numberOfBuckets * BUCKET_SIZE * ENTRY_SIZE];
+    this.mask = numberOfBuckets - 1;
+  }
+
+  /**
+   * Look up a position.
+   * @param key The Zobrist key of the position
+   * @return The data of the entry, or 0, if the position is not in the table
+   */
+  public long probe(long key) {
+    int bucket = ((int) key & mask) * BUCKET_SIZE * ENTRY_SIZE;
+    for (int index = bucket; index < bucket + BUCKET_SIZE * ENTRY_SIZE; index += ENTRY_SIZE) {
+      long data = entries[index + 1];
+      if ((entries[index] ^ data) == key && data != 0) {
+        hits++;
+        return data;
+      }
+    }
+    misses++;
+    return 0;
+  }
+
+  /**
+   * Store the result of a search of a position.
+   * @param key The Zobrist key of the position
+   * @param move The best move, or {@link murusgallicus.core.Move#NONE}
+   * @param bound The bound type of the score
+   * @param depth The depth of the search
+   * @param score The score of the position
+   */
+  public void store(long key, int move, int bound, int depth, int score) {
+    int bucket = ((int) key & mask) * BUCKET_SIZE * ENTRY_SIZE;
+    int replaced = bucket;
+    int lowestPriority = Integer.MAX_VALUE;
+    for (int index = bucket; index < bucket + BUCKET_SIZE * ENTRY_SIZE; index += ENTRY_SIZE) {
+      long data = entries[index + 1];
+      if (data == 0) {
+        replaced = index;
+        break;
+      }
+      if ((entries[index] ^ data) == key) {
+        if (move == 0) move = getMove(data);
+        replaced = index;
+        break;
+      }
+      int priority = getDepth(data) + ((getGeneration(data) == generation) ? 256 : 0);
+      if (priority < lowestPriority) {
+        lowestPriority = priority;
+        replaced = index;
+      }
+    }
+
+    long data = (move & MOVE_MASK) | ((long) bound << BOUND_SHIFT)
+        | ((long) Math.min(depth, 0xFF) << DEPTH_SHIFT) | ((long) generation << GENERATION_SHIFT)
+        | ((long) score << SCORE_SHIFT);
+    entries[replaced] = key ^ data;
+    entries[replaced + 1] = data;
+  }
+
+  /**
+   * Getter for the best move of an entry.
+   */
+  public static int getMove(long data) {
+    return (int) (data & MOVE_MASK);
+  }
+
+  /**
+   * Getter for the bound type of an entry.
+   */
+  public static int getBound(long data) {
+    return (int) (data >>> BOUND_SHIFT) & 0x3;
+  }
+
+  /**
+   * Getter for the depth of an entry.
+   */
+  public static int getDepth(long data) {
+    return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+  }
+
+  private static int getGeneration(long data) {
+    return (int) (data >>> GENERATION_SHIFT) & 0xFF;
+  }
+
+  /**
+   * Getter for the score of an entry.
+   */
+  public static int getScore(long data) {
+    return (int) (data >> SCORE_SHIFT);
+  }
+
+  /**
+   * Mark the start of a new search, so that the entries of earlier searches are replaced first.
+   */
+  public void newSearch() {
+    generation = (generation + 1) & 0xFF;
+  }
+
+  /**
+   * Remove all the entries and reset the statistics.
+   */
+  public void clear() {
+    Arrays.fill(entries, 0);
+    generation = 0;
+    resetStatistics();
+  }
+
+  /**
+   * Reset the hit and miss counters.
+   */
+  public void resetStatistics() {
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+   * Getter for the number of lookups, that found the position.
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Getter for the number of lookups, that did not find the position.
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Getter for the number of entries of the table.
+   */
+  public int getNumberOfEntries() {
+    return (mask + 1) * BUCKET_SIZE;
+  }
+
+  @Override
+  public String toString() {
+    long lookups = hits + misses;
+    return "Transposition table: " + getNumberOfEntries() + " entries, " + hits + " hits, "
+        + misses + " misses" + ((lookups > 0) ? ", hit rate " + (100 * hits / lookups) + "%" : "");
+  }
+}
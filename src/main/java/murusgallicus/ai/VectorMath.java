@@ -0,0 +1,82 @@
+package murusgallicus.ai;
+
+/**
+ * The vector kernels of the neural network. If the classes have been built with the Maven profile
+ * simd and the JVM runs with the incubating Vector API (--add-modules jdk.incubator.vector), the
+ * kernels of {@code VectorMathSimd} are used, otherwise the scalar loops of this class. The SIMD
+ * class is only loaded by name, when the module is present, so the network still runs on a JVM
+ * without it, and the default build does not need the module at all. The system property
+ * murusgallicus.simd=false forces the scalar kernels.
+ */
+final class VectorMath {
+
+  /**
+   * The kernels, that the Vector API implements.
+   */
+  interface Kernels {
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    void add(float[] x, int xOffset, float[] y, int yOffset, int length);
+  }
+
+  /**
+   * The kernels of the Vector API, or null, if the scalar loops are used.
+   */
+  private static final Kernels SIMD_KERNELS = loadSimdKernels();
+
+  /**
+   * Whether the kernels of the Vector API are used.
+   */
+  static final boolean SIMD = SIMD_KERNELS != null;
+
+  private VectorMath() {}
+
+  private static Kernels loadSimdKernels() {
+    if (!Boolean.parseBoolean(System.getProperty("murusgallicus.simd", "true"))) return null;
+    if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return null;
+    try {
+      return (Kernels) Class.forName("murusgallicus.ai.VectorMathSimd")
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // The classes have been built without the simd profile
+      return null;
+    }
+  }
+
+  /**
+   * The dot product of two vectors.
+   * @param a The array of the first vector
+   * @param aOffset The index of the first element of the first vector
+   * @param b The array of the second vector
+   * @param bOffset The index of the first element of the second vector
+   * @param length The length of the vectors
+   * @return The dot product
+   */
+  static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+    if (SIMD_KERNELS != null) return SIMD_KERNELS.dot(a, aOffset, b, bOffset, length);
+    return scalarDot(a, aOffset, b, bOffset, length);
+  }
+
+  /**
+   * Add a vector to another one: y += x.
+   * @param x The array of the vector to add
+   * @param xOffset The index of the first element of the vector to add
+   * @param y The array of the vector to add to
+   * @param yOffset The index of the first element of the vector to add to
+   * @param length The length of the vectors
+   */
+  static void add(float[] x, int xOffset, float[] y, int yOffset, int length) {
+    if (SIMD_KERNELS != null) SIMD_KERNELS.add(x, xOffset, y, yOffset, length);
+    else scalarAdd(x, xOffset, y, yOffset, length);
+  }
+
+  static float scalarDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+    float sum = 0;
+    for (int i = 0; i < length; i++) sum += a[aOffset + i] * b[bOffset + i];
+    return sum;
+  }
+
+  static void scalarAdd(float[] x, int xOffset, float[] y, int yOffset, int length) {
+    for (int i = 0; i < length; i++) y[yOffset + i] += x[xOffset + i];
+  }
+}
@@ -0,0 +1,44 @@
+package murusgallicus.ai;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernels of {@link VectorMath} with the Vector API, using the widest float vectors of the
+ * CPU. This class is only compiled with the Maven profile simd, and must only be loaded, if the
+ * module jdk.incubator.vector is present.
+ */
+final class VectorMathSimd implements VectorMath.Kernels {
+
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  VectorMathSimd() {}
+
+  @Override
+  public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+    FloatVector sum = FloatVector.zero(SPECIES);
+    int upperBound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < upperBound; i += SPECIES.length()) {
+      FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+      FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+      sum = va.fma(vb, sum);
+    }
+    float result = sum.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) result += a[aOffset + i] * b[bOffset + i];
+    return result;
+  }
+
+  @Override
+  public void add(float[] x, int xOffset, float[] y, int yOffset, int length) {
+    int upperBound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < upperBound; i += SPECIES.length()) {
+      FloatVector vx = FloatVector.fromArray(SPECIES, x, xOffset + i);
+      FloatVector vy = FloatVector.fromArray(SPECIES, y, yOffset + i);
+      vx.add(vy).intoArray(y, yOffset + i);
+    }
+    for (; i < length; i++) y[yOffset + i] += x[xOffset + i];
+  }
+}
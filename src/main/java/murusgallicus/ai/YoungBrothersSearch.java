@@ -0,0 +1,364 @@
+package murusgallicus.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import murusgallicus.core.Board;
+import murusgallicus.core.Move;
+
+/**
+ * The Young Brothers Wait parallel search, a deterministic alternative to the Lazy SMP mode of
+ * {@link MiniMax}. It is the same negamax alpha-beta search, but at every node with at least the
+ * minimum split depth left, the eldest brother, the first move, is searched serially, and only
+ * then the younger brothers are forked as tasks into a ForkJoinPool, each on its own copy of the
+ * board. The nodes of a split share a split point, which collects the best score. When it raises
+ * alpha, the running brothers narrow their windows, and when it causes a cutoff, all the tasks
+ * below the split point abort. The transposition table is not used, so the score of the root
+ * does not depend on the timing of the threads.
+ * <p>
+ * A task copies the position of its parent into a board of the worker thread, that runs it, and
+ * the split points and brother tasks are reused as well, so that nothing gets allocated per node
+ * during the search. A worker keeps a stack of them,
+ * because while it waits for the brothers of a split, it may run other tasks itself.
+ */
+class YoungBrothersSearch {
+
+  /**
+   * The default minimum depth left at a node, so that its younger brothers are searched in
+   * parallel. Below it the tasks would be too small to pay for a board copy.
+   */
+  static final int DEFAULT_MINIMUM_SPLIT_DEPTH = 3;
+
+  private final ForkJoinPool pool;
+  private final int minimumSplitDepth;
+  private final LongAdder nodes = new LongAdder();
+
+  /**
+   * The boards and move pickers of the worker threads.
+   */
+  private final ThreadLocal<WorkspaceStack> workspaces =
+      ThreadLocal.withInitial(WorkspaceStack::new);
+
+  private int bestMove;
+
+  /**
+   * Create a search.
+   * @param threads The number of threads of the pool
+   * @param minimumSplitDepth The minimum depth left at a node, where the search splits
+   */
+  YoungBrothersSearch(int threads, int minimumSplitDepth) {
+    if (minimumSplitDepth < 1)
+      throw new IllegalArgumentException("Invalid minimum split depth: " + minimumSplitDepth);
+    this.pool = new ForkJoinPool(threads);
+    this.minimumSplitDepth = minimumSplitDepth;
+  }
+
+  /**
+   * Search the root to a fixed depth.
+   * @param root The root position, which is not changed
+   * @param depth The depth of the search
+   * @param firstMove The move to search first at the root, e.g. the best move of the previous
+   *                  iteration, or {@link Move#NONE}
+   * @return The score of the root from the view of the player to move
+   */
+  int search(Board root, int depth, int firstMove) {
+    return pool.invoke(new Task().init(root, depth, 0, -MiniMax.INFINITY, MiniMax.INFINITY, null,
+        Move.NONE, firstMove));
+  }
+
+  /**
+   * Getter for the best move of the root of the last search.
+   */
+  int getBestMove() {
+    return bestMove;
+  }
+
+  /**
+   * Getter for the number of nodes searched since the last reset.
+   */
+  long getNodes() {
+    return nodes.sum();
+  }
+
+  /**
+   * Reset the number of nodes.
+   */
+  void resetNodes() {
+    nodes.reset();
+  }
+
+  /**
+   * Stop the threads of the pool.
+   */
+  void shutdown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * The shared state of the brothers of a split node. The split points of a search form a tree,
+   * and a cutoff at a split point aborts all split points below it at once, so that a task only
+   * needs to check the abort flag of its own split point. The split points are reused, so they
+   * are linked into the children of their parent, while their brothers run, and unlinked after.
+   */
+  private static final class SplitPoint {
+    SplitPoint parent;
+    int beta;
+    volatile int alpha;
+    volatile boolean aborted;
+    int bestScore;
+    int bestMove;
+
+    /**
+     * The children, which are guarded by the lock of this split point.
+     */
+    private SplitPoint firstChild;
+    private SplitPoint previousSibling;
+    private SplitPoint nextSibling;
+
+    /**
+     * Prepare the split point for the brothers of a split node and link it into its parent. If
+     * the parent is already aborted, the split point starts aborted.
+     */
+    void open(SplitPoint parent, int alpha, int beta, int bestScore, int bestMove) {
+      this.parent = parent;
+      this.alpha = alpha;
+      this.beta = beta;
+      this.bestScore = bestScore;
+      this.bestMove = bestMove;
+      this.aborted = false;
+      if (parent == null) return;
+      synchronized (parent) {
+        if (parent.aborted) {
+          aborted = true;
+          return;
+        }
+        previousSibling = null;
+        nextSibling = parent.firstChild;
+        if (nextSibling != null) nextSibling.previousSibling = this;
+        parent.firstChild = this;
+      }
+    }
+
+    /**
+     * Unlink the split point from its parent after all of its brothers are done.
+     */
+    void close() {
+      if (parent == null) return;
+      synchronized (parent) {
+        if (parent.firstChild == this) {
+          parent.firstChild = nextSibling;
+        } else if (previousSibling != null) {
+          previousSibling.nextSibling = nextSibling;
+        }
+        if (nextSibling != null) nextSibling.previousSibling = previousSibling;
+        previousSibling = null;
+        nextSibling = null;
+      }
+    }
+
+    /**
+     * Report the score of a brother.
+     */
+    synchronized void report(int score, int move) {
+      if (score <= bestScore) return;
+      bestScore = score;
+      bestMove = move;
+      if (score > alpha) {
+        alpha = score;
+        if (score >= beta) abort();
+      }
+    }
+
+    /**
+     * Abort this split point and all split points below it.
+     */
+    synchronized void abort() {
+      if (aborted) return;
+      aborted = true;
+      for (SplitPoint child = firstChild; child != null; child = child.nextSibling) child.abort();
+    }
+  }
+
+  /**
+   * A board and the move pickers for every ply, that one task works on, and the split points and
+   * the brother tasks of the splits below it, which are created on first use.
+   */
+  private static final class Workspace {
+    final Board board = new Board("8/8/8/8/8/8/8 r");
+    final MovePicker[] movePickers = new MovePicker[Board.MAX_PLY];
+    final SplitPoint[] splitPoints = new SplitPoint[Board.MAX_PLY];
+    final Task[][] brothers = new Task[Board.MAX_PLY][];
+
+    Workspace() {
+      for (int i = 0; i < movePickers.length; i++) movePickers[i] = new MovePicker();
+    }
+  }
+
+  /**
+   * The workspaces of a worker thread. The tasks a worker runs are nested, so the workspaces are
+   * acquired and released in stack order.
+   */
+  private static final class WorkspaceStack {
+    private final List<Workspace> workspaces = new ArrayList<>();
+    private int used;
+
+    Workspace acquire() {
+      if (used == workspaces.size()) workspaces.add(new Workspace());
+      return workspaces.get(used++);
+    }
+
+    void release() {
+      used--;
+    }
+  }
+
+  /**
+   * The search of a subtree on a board of its worker. The root task searches the root of the
+   * search, the other tasks search a younger brother of a split node.
+   */
+  private final class Task extends RecursiveTask<Integer> {
+    private static final long serialVersionUID = 1L;
+
+    private Board parent;
+    private int depth;
+    private int ply;
+    private int alpha;
+    private int beta;
+    private SplitPoint splitPoint;
+    private int move;
+    private int firstMove;
+
+    private Workspace workspace;
+    private Board board;
+    private long taskNodes;
+
+    /**
+     * Prepare the task for a run, so that it can be reused after it is done.
+     * @param parent The board of the parent node, which is not changed, until the task is done
+     * @param depth The remaining depth after the move
+     * @param ply The distance from the root after the move
+     * @param alpha The lower bound of the window
+     * @param beta The upper bound of the window
+     * @param splitPoint The split point of the brothers, or null for the root
+     * @param move The move from the parent node, or {@link Move#NONE} for the root
+     * @param firstMove The move to search first, or {@link Move#NONE}
+     * @return This task
+     */
+    Task init(Board parent, int depth, int ply, int alpha, int beta, SplitPoint splitPoint,
+        int move, int firstMove) {
+      reinitialize();
+      this.parent = parent;
+      this.depth = depth;
+      this.ply = ply;
+      this.alpha = alpha;
+      this.beta = beta;
+      this.splitPoint = splitPoint;
+      this.move = move;
+      this.firstMove = firstMove;
+      this.taskNodes = 0;
+      return this;
+    }
+
+    @Override
+    protected Integer compute() {
+      WorkspaceStack stack = workspaces.get();
+      workspace = stack.acquire();
+      int score;
+      try {
+        board = workspace.board;
+        parent.copyInto(board);
+        if (move != Move.NONE) board.makeMove(move);
+
+        // A brother starts with the window of the split point at the time it starts
+        int taskBeta = (splitPoint == null) ? beta : Math.min(beta, -splitPoint.alpha);
+        score = negamax(depth, ply, alpha, taskBeta, splitPoint);
+      } finally {
+        workspace = null;
+        board = null;
+        stack.release();
+      }
+      nodes.add(taskNodes);
+      if (splitPoint != null && !splitPoint.aborted) splitPoint.report(-score, move);
+      return score;
+    }
+
+    /**
+     * The negamax search like the one of {@link Searcher}, which splits at the nodes with at least
+     * the minimum split depth left.
+     * @param depth The remaining depth
+     * @param ply The distance from the root of the search
+     * @param alpha The score the player to move is already guaranteed
+     * @param beta The score the opponent is already guaranteed
+     * @param enclosingSplitPoint The innermost split point above the node, or null
+     * @return The score of the position, or a bound on it outside of the window
+     */
+    private int negamax(int depth, int ply, int alpha, int beta, SplitPoint enclosingSplitPoint) {
+      taskNodes++;
+      if (enclosingSplitPoint != null && enclosingSplitPoint.aborted) return 0;
+      if (board.isGameOver()) {
+        int rating = board.getRating();
+        return (rating > 0) ? rating - ply : rating + ply;
+      }
+      if (depth == 0) return board.getRating(alpha, beta);
+
+      MovePicker movePicker = workspace.movePickers[ply - this.ply];
+      movePicker.init(board, (ply == 0) ? firstMove : Move.NONE);
+
+      // The eldest brother is always searched serially
+      int move = movePicker.nextMove();
+      if (move == Move.NONE) return MiniMax.NO_MOVES + ply;
+      board.makeMove(move);
+      int bestScore = -negamax(depth - 1, ply + 1, -beta, -alpha, enclosingSplitPoint);
+      board.unmakeMove(move);
+      if (enclosingSplitPoint != null && enclosingSplitPoint.aborted) return 0;
+      int bestMove = move;
+      if (bestScore > alpha) alpha = bestScore;
+
+      if (alpha < beta && depth >= minimumSplitDepth) {
+        int index = ply - this.ply;
+        SplitPoint split = workspace.splitPoints[index];
+        if (split == null) split = workspace.splitPoints[index] = new SplitPoint();
+        Task[] brothers = workspace.brothers[index];
+        if (brothers == null) brothers = workspace.brothers[index] = new Task[Board.MAX_MOVES];
+        split.open(enclosingSplitPoint, alpha, beta, bestScore, bestMove);
+        int count = 0;
+        while ((move = movePicker.nextMove()) != Move.NONE) {
+          if (brothers[count] == null) brothers[count] = new Task();
+          brothers[count++].init(board, depth - 1, ply + 1, -beta, -alpha, split, move,
+              Move.NONE);
+        }
+        try {
+          // Like invokeAll, but without a list of the brothers
+          for (int i = count - 1; i > 0; i--) brothers[i].fork();
+          if (count > 0) brothers[0].invoke();
+          for (int i = 1; i < count; i++) brothers[i].join();
+        } finally {
+          split.close();
+        }
+        bestScore = split.bestScore;
+        bestMove = split.bestMove;
+      } else {
+        while (alpha < beta && (move = movePicker.nextMove()) != Move.NONE) {
+          if (enclosingSplitPoint != null && ply == this.ply) {
+            // Narrow the window of this brother to the alpha of its split point
+            beta = Math.min(beta, -enclosingSplitPoint.alpha);
+            if (alpha >= beta) break;
+          }
+          board.makeMove(move);
+          int score = -negamax(depth - 1, ply + 1, -beta, -alpha, enclosingSplitPoint);
+          board.unmakeMove(move);
+          if (enclosingSplitPoint != null && enclosingSplitPoint.aborted) return 0;
+          if (score > bestScore) {
+            bestScore = score;
+            bestMove = move;
+            if (score > alpha) alpha = score;
+          }
+        }
+      }
+      if (ply == 0) YoungBrothersSearch.this.bestMove = bestMove;
+      return bestScore;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package murusgallicus.core;
+
+import murusgallicus.ai.NeuralNetwork;
+
+/**
+ * The accumulator of the first layer of a neural network on the features of
+ * {@link Board#bitify()}: the weighted sum of the features plus the biases, before the
+ * activation. A move changes only two or three squares and the player to move, so the board
+ * updates the accumulator by adding and subtracting the weight columns of the changed features.
+ * The values of every ply are kept on a stack, so that unmaking a move only pops the stack.
+ * <p>
+ * A move only records its changed features on the stack. The values of a ply are computed from
+ * the ones of the ply before, when they are read, so the positions, that are never evaluated,
+ * cost no copy of the values at all.
+ */
+public final class Accumulator {
+
+  /**
+   * The feature of the gauls to move.
+   */
+  static final int GAULS_TO_MOVE_FEATURE = NeuralNetwork.NUMBER_OF_FEATURES - 1;
+
+  /**
+   * The maximal number of features a move changes. A piece, that changes, clears one feature
+   * and sets another one, a move changes at most three squares and the player to move.
+   */
+  private static final int MAX_CHANGES = 8;
+
+  private final int size;
+  private final float[] columns;
+  private final float[] biases;
+
+  /**
+   * The values for every ply, the values of the current position are at the ply of the board.
+   * The values of a ply are only valid, if it is computed.
+   */
+  private final float[][] stack = new float[Board.MAX_PLY + 1][];
+  private final boolean[] computed = new boolean[Board.MAX_PLY + 1];
+  private int ply;
+
+  /**
+   * The features changed by the move to every ply, that is not computed yet. A set feature is
+   * stored as its index, a cleared one as the complement of its index.
+   */
+  private final int[] changes = new int[(Board.MAX_PLY + 1) * MAX_CHANGES];
+  private final int[] numberOfChanges = new int[Board.MAX_PLY + 1];
+
+  /**
+   * Create an accumulator.
+   * @param columns The weights of the first layer stored column by column, so that the weights of
+   *                feature i are at the indices i * size to (i + 1) * size - 1
+   * @param biases The biases of the first layer, whose length is the size of the accumulator
+   */
+  public Accumulator(float[] columns, float[] biases) {
+    if (columns.length != NeuralNetwork.NUMBER_OF_FEATURES * biases.length)
+      throw new IllegalArgumentException("The weights do not match the number of features");
+    this.size = biases.length;
+    this.columns = columns;
+    this.biases = biases;
+    for (int i = 0; i < stack.length; i++) stack[i] = new float[size];
+  }
+
+  /**
+   * Getter for the number of values.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the values of the current position. The array is overwritten, when the board changes.
+   * @return The weighted sums of the features plus the biases
+   */
+  public float[] values() {
+    if (!computed[ply]) compute(ply);
+    return stack[ply];
+  }
+
+  /**
+   * Compute the values of a ply from the ones of the ply before and the changes of the move. Two
+   * changes are applied per pass over the values, and the first pass also copies the values of the
+   * ply before, so that a move with the usual five changes takes three passes instead of six.
+   */
+  private void compute(int target) {
+    if (!computed[target - 1]) compute(target - 1);
+    float[] source = stack[target - 1];
+    float[] values = stack[target];
+    int end = target * MAX_CHANGES + numberOfChanges[target];
+    int change = target * MAX_CHANGES;
+    if (change == end) System.arraycopy(source, 0, values, 0, size);
+    for (; change < end; change += 2) {
+      if (change + 1 < end) apply(source, values, changes[change], changes[change + 1]);
+      else apply(source, values, changes[change]);
+      source = values;
+    }
+    computed[target] = true;
+  }
+
+  /**
+   * Compute the values of a position from scratch and clear the stack.
+   * @param board The board, whose position is accumulated
+   */
+  void refresh(Board board) {
+    ply = 0;
+    computed[0] = true;
+    float[] values = stack[0];
+    System.arraycopy(biases, 0, values, 0, size);
+    for (int square = 0; square < 56; square++) {
+      int code = board.mailbox[square];
+      if (code != 0) add((code - 1) * 56 + square);
+    }
+    if (board.getPlayerToMove() == 'g') add(GAULS_TO_MOVE_FEATURE);
+  }
+
+  /**
+   * Start the ply of a move, whose changes are recorded, until its values are read.
+   */
+  void push() {
+    ply++;
+    computed[ply] = false;
+    numberOfChanges[ply] = 0;
+  }
+
+  /**
+   * Restore the values from before the last move.
+   */
+  void pop() {
+    ply--;
+  }
+
+  /**
+   * Add a feature, that has been set.
+   * @param feature The index of the feature
+   */
+  void add(int feature) {
+    change(feature);
+  }
+
+  /**
+   * Subtract a feature, that has been cleared.
+   * @param feature The index of the feature
+   */
+  void subtract(int feature) {
+    change(~feature);
+  }
+
+  /**
+   * Apply a change to the values of the current ply, if they are computed, or record it.
+   */
+  private void change(int change) {
+    if (computed[ply]) {
+      apply(stack[ply], stack[ply], change);
+    } else if (numberOfChanges[ply] < MAX_CHANGES) {
+      changes[ply * MAX_CHANGES + numberOfChanges[ply]++] = change;
+    } else {
+      compute(ply);
+      apply(stack[ply], stack[ply], change);
+    }
+  }
+
+  /**
+   * Add or subtract the weight column of a changed feature.
+   * @param source The values before the change
+   * @param values The array to write the values after the change to, which may be the source
+   * @param change The changed feature or its complement
+   */
+  private void apply(float[] source, float[] values, int change) {
+    int column = ((change >= 0) ? change : ~change) * size;
+    float sign = (change >= 0) ? 1 : -1;
+    for (int i = 0; i < size; i++) values[i] = source[i] + sign * columns[column + i];
+  }
+
+  /**
+   * Add or subtract the weight columns of two changed features in one pass.
+   */
+  private void apply(float[] source, float[] values, int first, int second) {
+    int firstColumn = ((first >= 0) ? first : ~first) * size;
+    int secondColumn = ((second >= 0) ? second : ~second) * size;
+    float firstSign = (first >= 0) ? 1 : -1;
+    float secondSign = (second >= 0) ? 1 : -1;
+    for (int i = 0; i < size; i++) {
+      values[i] = source[i] + firstSign * columns[firstColumn + i]
+          + secondSign * columns[secondColumn + i];
+    }
+  }
+}
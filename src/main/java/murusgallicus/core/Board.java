@@ -1,8 +1,6 @@
 package murusgallicus.core;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -10,6 +8,41 @@ import java.util.Random;
  */
 public class Board {
 
+  /**
+   * The maximal number of moves that can be generated for a single position.
+   */
+  public static final int MAX_MOVES = 256;
+
+  /**
+   * The maximal number of moves that can be made (and not yet unmade) on a board.
+   */
+  public static final int MAX_PLY = 128;
+
+  /**
+   * The number of longs stored in the undo stack for every move made.
+   */
+  private static final int UNDO_ENTRY_SIZE = 9;
+
+  /**
+   * A list containing 6*56+1 random numbers for Zobrist hashing, shared by all the boards, so that
+   * equal positions get equal keys.
+   * 6*56 for each piece(6) on each square(56=7*8)
+   * 1 for the side to move
+   */
+  private static final long[] ZOBRIST_KEYS = new long[6*56+1];
+
+  /**
+   * The index of the Zobrist key for the side to move.
+   */
+  private static final int ZOBRIST_GAULS_TO_MOVE = 6*56;
+
+  static {
+    Random random = new Random(0x4D7572757347616CL);
+    for (int i = 0; i < ZOBRIST_KEYS.length; i++) {
+      ZOBRIST_KEYS[i] = random.nextLong();
+    }
+  }
+
   /**
    * Bitboard for the gaul walls.
    */
@@ -67,6 +100,60 @@ public class Board {
    */
   char playerToMove;
 
+  /**
+   * The 64-bit Zobrist key of the position, which gets updated together with the bitboards.
+   */
+  long zobrist;
+
+  /**
+   * The sum of the piece square table values of all the roman pieces.
+   */
+  int romanPieceSquareScore;
+
+  /**
+   * The sum of the piece square table values of all the gaul pieces.
+   */
+  int gaulPieceSquareScore;
+
+  /**
+   * The sum of the values of all the roman pieces.
+   */
+  int romanMaterial;
+
+  /**
+   * The sum of the values of all the gaul pieces.
+   */
+  int gaulMaterial;
+
+  /**
+   * The mailbox, that holds the piece of every square (indexed by shift width) as ordinal + 1, or 0
+   * for an empty square. It is kept in sync with the bitboards by the piece mutators, so that
+   * {@link #getPieceAt(int)} is a single array access.
+   */
+  final byte[] mailbox = new byte[56];
+
+  /**
+   * The number of moves made with {@link #makeMove(int)}, that have not been unmade yet.
+   */
+  int ply;
+
+  /**
+   * The undo stack, where the piece bitboards, the Zobrist key and the running evaluation totals
+   * are saved before every move is made.
+   */
+  private final long[] undoStack = new long[MAX_PLY * UNDO_ENTRY_SIZE];
+
+  /**
+   * The moves made so far, in order to check that they get unmade in the reverse order.
+   */
+  private final int[] moveStack = new int[MAX_PLY];
+
+  /**
+   * The first-layer accumulator of a neural network, that is updated by the piece mutators, or
+   * null, if the board is not evaluated by a network.
+   */
+  private Accumulator accumulator;
+
   /**
    * An enum to represent all the pieces.
    */
@@ -86,6 +173,50 @@ public class Board {
       this.fenChar = fenChar;
       this.zobristIndex = zobristIndex;
     }
+
+    /**
+     * All the pieces, indexed by their ordinal.
+     */
+    static final Piece[] VALUES = values();
+
+    boolean isRoman() { return zobristIndex < 3; }
+    boolean isWall() { return zobristIndex % 3 == 0; }
+    boolean isTower() { return zobristIndex % 3 == 1; }
+    boolean isCatapult() { return zobristIndex % 3 == 2; }
+
+    /**
+     * Get the piece of the same side with one more stone.
+     * @return The upgraded piece
+     */
+    Piece upgrade() {
+      return withStones(zobristIndex % 3 + 2);
+    }
+
+    /**
+     * Get the piece of the same side, after some of its stones have been removed.
+     * @param amount The number of stones removed
+     * @return The downgraded piece, or null, if no stones are left
+     */
+    Piece downgrade(int amount) {
+      return withStones(zobristIndex % 3 + 1 - amount);
+    }
+
+    private Piece withStones(int stones) {
+      if (stones <= 0) return null;
+      if (isRoman()) return (stones == 1) ? RomanWall : (stones == 2) ? RomanTower : RomanCatapult;
+      return (stones == 1) ? GaulWall : (stones == 2) ? GaulTower : GaulCatapult;
+    }
+
+    static Piece wallOf(char player) {
+      return (player == 'r') ? RomanWall : GaulWall;
+    }
+
+    static Piece fromFenChar(char c) {
+      for (Piece piece: VALUES) {
+        if (piece.fenChar == c) return piece;
+      }
+      throw new IllegalArgumentException("There isn't a piece with this FEN character: " + c);
+    }
   }
 
   /**
@@ -114,10 +245,24 @@ public class Board {
       return findSquareByShiftWidth(newShiftWidth);
     }
     static Square findSquareByShiftWidth(long shiftWidth) {
-      for (Square square: Square.values()) {
-        if (square.shiftWidth == shiftWidth) return square;
-      }
-      throw new IllegalArgumentException("There isn't a square with this shiftwidth");
+      if (shiftWidth < 0 || shiftWidth >= 56)
+        throw new IllegalArgumentException("There isn't a square with this shiftwidth");
+      return BY_SHIFT_WIDTH[(int) shiftWidth];
+    }
+
+    /**
+     * All the squares, indexed by their shift width.
+     */
+    private static final Square[] BY_SHIFT_WIDTH = new Square[56];
+    static {
+      for (Square square: values()) BY_SHIFT_WIDTH[(int) square.shiftWidth] = square;
+    }
+
+    /**
+     * The distance between two squares given by their shift widths.
+     */
+    static int distance(int first, int second) {
+      return Math.max(Math.abs(first / 7 - second / 7), Math.abs(first % 7 - second % 7));
     }
   }
 
@@ -145,14 +290,7 @@ public class Board {
   /**
    * A list containig all the squares of the board in the order that they appears in the FEN string.
    */
-  Square[] squaresFenOrder = Square.values();
-
-  /**
-   * A list containing 6*56+1 random numbers for Zobrist hashing.
-   * 6*56 for each piece(6) on each square(56=7*8)
-   * 1 for the side to move
-   */
-  int[] zobristKeys = new int[6*56+1];
+  static final Square[] squaresFenOrder = Square.values();
 
   /**
    * The Constructor of the Board class.
@@ -160,40 +298,157 @@ public class Board {
    */
   public Board(String fen) {
     setBoard(fen);
-    fillZobristKeys();
   }
 
   /**
-   * Sets all the bitboard to their values according to the fen string given.
-   * @param fen The fen string that the board needs to accord to
+   * The Constructor of the Board class for a compact position value.
+   * @param position The position that the board needs to accord to
    */
-  public void setBoard(String fen) {
-    String[] boardAndPlayer = fen.split(" ");
-    String board = boardAndPlayer[0];
-    playerToMove = boardAndPlayer[1].charAt(0);
-
-    int squareCounter = 0;
-    for (Character c: board.toCharArray()) {
-      if (Character.isDigit(c)) {
-        for (int i = squareCounter; i < squareCounter + Character.getNumericValue(c); i++) {
-          removePieceAt(squaresFenOrder[i]);
-        }
-        squareCounter += Character.getNumericValue(c);
-      } else if (c != '/') {
-        removePieceAt(squaresFenOrder[squareCounter]);
-        setPieceAtSquare(c, squaresFenOrder[squareCounter++]);
+  public Board(Position position) {
+    setPosition(position);
+  }
+
+  /**
+   * Sets all the bitboards to the values of a compact position and recomputes the derived
+   * bitboards and the Zobrist key. The undo stack is cleared.
+   * @param position The position that the board needs to accord to
+   */
+  void setPosition(Position position) {
+    gaulWalls = position.gaulWalls;
+    gaulTowers = position.gaulTowers;
+    gaulCatapults = position.gaulCatapults;
+    romanWalls = position.romanWalls;
+    romanTowers = position.romanTowers;
+    romanCatapults = position.romanCatapults;
+    playerToMove = position.playerToMove;
+    resetDerivedState();
+  }
+
+  /**
+   * Recompute the derived bitboards, the mailbox and the Zobrist key after the six piece bitboards
+   * and the player to move have been overwritten. The undo stack is cleared.
+   */
+  void resetDerivedState() {
+    ply = 0;
+    updateDerivedBitboards();
+    for (int square = 0; square < 56; square++) updateMailbox(square);
+    zobrist = computeZobristKey();
+    computeEvaluationTotals();
+    if (accumulator != null) accumulator.refresh(this);
+  }
+
+  /**
+   * Compute the piece square and material totals of both sides from scratch.
+   */
+  private void computeEvaluationTotals() {
+    romanPieceSquareScore = gaulPieceSquareScore = romanMaterial = gaulMaterial = 0;
+    for (long pieces = occupied; pieces != 0; pieces &= pieces - 1) {
+      int square = Long.numberOfTrailingZeros(pieces);
+      Piece piece = getPieceAt(square);
+      if (piece.isRoman()) {
+        romanPieceSquareScore += BoardRating.getPieceSquareValue(piece, square);
+        romanMaterial += piece.pieceValue;
+      } else {
+        gaulPieceSquareScore += BoardRating.getPieceSquareValue(piece, square);
+        gaulMaterial += piece.pieceValue;
       }
     }
   }
 
   /**
-   * Fill zobrist keys array with random number for zobrist hashing.
+   * Get the compact value of the current position.
+   * @return A new position with the bitboards of the board
+   */
+  public Position snapshot() {
+    Position position = new Position();
+    snapshot(position);
+    return position;
+  }
+
+  /**
+   * Write the current position into an existing compact value, without allocating anything.
+   * @param position The position to overwrite
+   */
+  public void snapshot(Position position) {
+    position.gaulWalls = gaulWalls;
+    position.gaulTowers = gaulTowers;
+    position.gaulCatapults = gaulCatapults;
+    position.romanWalls = romanWalls;
+    position.romanTowers = romanTowers;
+    position.romanCatapults = romanCatapults;
+    position.playerToMove = playerToMove;
+  }
+
+  /**
+   * Copy the current position into another board, without allocating anything. The undo stack of
+   * the other board is cleared, so moves made on this board cannot be unmade on the copy.
+   * @param other The board that is overwritten with the position
    */
-  private void fillZobristKeys() {
-    Random random = new Random();
-    for (int i = 0; i < zobristKeys.length; i++) {
-      zobristKeys[i] = random.nextInt();
+  public void copyInto(Board other) {
+    other.gaulWalls = gaulWalls;
+    other.gaulTowers = gaulTowers;
+    other.gaulCatapults = gaulCatapults;
+    other.gauls = gauls;
+    other.romanWalls = romanWalls;
+    other.romanTowers = romanTowers;
+    other.romanCatapults = romanCatapults;
+    other.romans = romans;
+    other.walls = walls;
+    other.towers = towers;
+    other.catapults = catapults;
+    other.occupied = occupied;
+    other.playerToMove = playerToMove;
+    other.zobrist = zobrist;
+    other.romanPieceSquareScore = romanPieceSquareScore;
+    other.gaulPieceSquareScore = gaulPieceSquareScore;
+    other.romanMaterial = romanMaterial;
+    other.gaulMaterial = gaulMaterial;
+    other.ply = 0;
+    System.arraycopy(mailbox, 0, other.mailbox, 0, mailbox.length);
+    if (other.accumulator != null) other.accumulator.refresh(other);
+  }
+
+  /**
+   * Attach the first-layer accumulator of a neural network to the board, which is then kept up to
+   * date with every move.
+   * @param accumulator The accumulator, or null to detach it
+   */
+  public void setAccumulator(Accumulator accumulator) {
+    this.accumulator = accumulator;
+    if (accumulator != null) accumulator.refresh(this);
+  }
+
+  /**
+   * Getter for the first-layer accumulator of the board.
+   * @return The accumulator, or null, if none is attached
+   */
+  public Accumulator getAccumulator() {
+    return accumulator;
+  }
+
+  /**
+   * Compute the Zobrist key of the position from scratch.
+   * @return The 64-bit Zobrist key
+   */
+  private long computeZobristKey() {
+    long key = (playerToMove == 'g') ? ZOBRIST_KEYS[ZOBRIST_GAULS_TO_MOVE] : 0;
+    long[] bitboards = {gaulWalls, gaulTowers, gaulCatapults, romanWalls, romanTowers,
+        romanCatapults};
+    for (int i = 0; i < bitboards.length; i++) {
+      int zobristIndex = Piece.VALUES[i].zobristIndex;
+      for (long pieces = bitboards[i]; pieces != 0; pieces &= pieces - 1) {
+        key ^= ZOBRIST_KEYS[zobristIndex * 56 + Long.numberOfTrailingZeros(pieces)];
+      }
     }
+    return key;
+  }
+
+  /**
+   * Sets all the bitboard to their values according to the fen string given.
+   * @param fen The fen string that the board needs to accord to
+   */
+  public void setBoard(String fen) {
+    FenCodec.parse(fen, this);
   }
 
   /**
@@ -203,64 +458,114 @@ public class Board {
     return playerToMove;
   }
 
-  public int[] bitify() {
-    int[] result = new int[337];
-    for (int i = 55; i <= 0; i--) {
-      result[i] = ((gaulWalls & (1 << i)) != 0) ? 1 : 0;
-      result[56+i] = ((gaulTowers & (1 << i)) != 0) ? 1 : 0;
-      result[2*56+i] = ((gaulCatapults & (1 << i)) != 0) ? 1 : 0;
-      result[3*56+i] = ((romanWalls & (1 << i)) != 0) ? 1 : 0;
-      result[4*56+i] = ((romanTowers & (1 << i)) != 0) ? 1 : 0;
-      result[5*56+i] = ((romanCatapults & (1 << i)) != 0) ? 1 : 0;
+  /**
+   * Check, if the game is over, because a side has lost all its towers or has got a wall onto
+   * the home rank of the opponent.
+   * @return true, if the game is over, false otherwise
+   */
+  public boolean isGameOver() {
+    return romanTowers == 0 || gaulTowers == 0
+        || (romanWalls & Rank.SEVENTH.bitboardMask()) != 0
+        || (gaulWalls & Rank.FIRST.bitboardMask()) != 0;
+  }
+
+  /**
+   * Pass the turn to the other player.
+   */
+  private void switchPlayerToMove() {
+    playerToMove = (playerToMove == 'r') ? 'g' : 'r';
+    zobrist ^= ZOBRIST_KEYS[ZOBRIST_GAULS_TO_MOVE];
+    if (accumulator != null) {
+      if (playerToMove == 'g') accumulator.add(Accumulator.GAULS_TO_MOVE_FEATURE);
+      else accumulator.subtract(Accumulator.GAULS_TO_MOVE_FEATURE);
     }
+  }
+
+  /**
+   * Getter for the Zobrist key of the position.
+   * @return The 64-bit Zobrist key, that is equal for equal positions
+   */
+  public long getZobristKey() {
+    return zobrist;
+  }
 
+  /**
+   * Encode the position as the input of the neural network of scripts/model.py: one block of 56
+   * squares for every piece in the order of the piece ordinals, followed by the player to move.
+   * @return The 337 features, 1 for the squares of the pieces and for the gauls to move, 0 otherwise
+   */
+  public int[] bitify() {
+    return bitify(new int[337]);
+  }
 
+  /**
+   * Encode the position as the input of the neural network into an existing array.
+   * @param result The array of at least 337 features to overwrite
+   * @return The array
+   */
+  public int[] bitify(int[] result) {
+    Arrays.fill(result, 0, 336, 0);
+    for (int square = 0; square < 56; square++) {
+      int code = mailbox[square];
+      if (code != 0) result[(code - 1) * 56 + square] = 1;
+    }
     result[336] = (getPlayerToMove() == 'r') ? 0 : 1;
     return result;
   }
 
   /**
    * Update the bitboard to remove a piece at a certain square.
-   * @param square The square, whose piece gets removed
+   * @param square The shift width of the square, whose piece gets removed
    */
-  private void removePieceAt(Square square) {
+  private void removePieceAt(int square) {
     Piece piece = getPieceAt(square);
     if (piece == null) return;
 
+    long mask = ~(1L << square);
     switch (piece) {
       case GaulWall:
-        gaulWalls &= ~square.bitboardMask();
-        walls &= ~square.bitboardMask();
-        gauls &= ~square.bitboardMask();
+        gaulWalls &= mask;
+        walls &= mask;
+        gauls &= mask;
         break;
       case GaulTower:
-        gaulTowers &= ~square.bitboardMask();
-        towers &= ~square.bitboardMask();
-        gauls &= ~square.bitboardMask();
+        gaulTowers &= mask;
+        towers &= mask;
+        gauls &= mask;
         break;
       case GaulCatapult:
-        gaulCatapults &= ~square.bitboardMask();
-        catapults &= ~square.bitboardMask();
-        gauls &= ~square.bitboardMask();
+        gaulCatapults &= mask;
+        catapults &= mask;
+        gauls &= mask;
         break;
       case RomanWall:
-        romanWalls &= ~square.bitboardMask();
-        walls &= ~square.bitboardMask();
-        romans &= ~square.bitboardMask();
+        romanWalls &= mask;
+        walls &= mask;
+        romans &= mask;
         break;
       case RomanTower:
-        romanTowers &= ~square.bitboardMask();
-        towers &= ~square.bitboardMask();
-        romans &= ~square.bitboardMask();
+        romanTowers &= mask;
+        towers &= mask;
+        romans &= mask;
         break;
       case RomanCatapult:
-        romanCatapults &= ~square.bitboardMask();
-        catapults &= ~square.bitboardMask();
-        romans &= ~square.bitboardMask();
+        romanCatapults &= mask;
+        catapults &= mask;
+        romans &= mask;
         break;
     }
 
-    occupied &= ~square.bitboardMask();
+    occupied &= mask;
+    mailbox[square] = 0;
+    if (accumulator != null) accumulator.subtract(piece.ordinal() * 56 + square);
+    if (piece.isRoman()) {
+      romanPieceSquareScore -= BoardRating.getPieceSquareValue(piece, square);
+      romanMaterial -= piece.pieceValue;
+    } else {
+      gaulPieceSquareScore -= BoardRating.getPieceSquareValue(piece, square);
+      gaulMaterial -= piece.pieceValue;
+    }
+    zobrist ^= ZOBRIST_KEYS[piece.zobristIndex * 56 + square];
   }
 
   /**
@@ -269,162 +574,220 @@ public class Board {
    */
   @Override
   public String toString() {
-    StringBuilder builder = new StringBuilder();
-    int empty = 0;
-    for (Square square: squaresFenOrder) {
-      Piece pieceAtSquare = getPieceAt(square);
-      if (pieceAtSquare == null) {
-        empty++;
-      } else {
-        if (empty > 0) {
-          builder.append(empty);
-          empty = 0;
-        }
-        builder.append(pieceAtSquare.fenChar);
-      }
-
-      if ((square.bitboardMask() & File.H.bitboardMask()) > 0) {
-        if (empty > 0) {
-          builder.append(empty);
-          empty = 0;
-        }
-
-        if (square != Square.h1) {
-          builder.append('/');
-          empty = 0;
-        }
-      }
-    }
-
-    builder.append(' ');
-    builder.append(playerToMove);
-    return builder.toString();
+    return FenCodec.write(this, new StringBuilder(FenCodec.MAX_FEN_LENGTH)).toString();
   }
 
   /**
-   * Hash code to be used in the transposition table
+   * Hash code derived from the Zobrist key of the position.
    */
   @Override
   public int hashCode() {
-    int hashCode = 0;
-    for (Square square: squaresFenOrder) {
-      Piece piece = getPieceAt(square);
-      if (piece != null)
-        hashCode ^= zobristKeys[piece.zobristIndex * 56 + (int) square.shiftWidth];
-    }
-
-    if (playerToMove == 'g') hashCode ^= zobristKeys[336];
-    return hashCode;
+    return (int) (zobrist ^ (zobrist >>> 32));
   }
 
   /**
-   * Execute a move.
+   * Execute a move permanently. This is meant to be used with the moves that come from the game
+   * server and cannot be undone. The search should use {@link #makeMove(int)} instead.
    * @param moveToBeExecuted The string representation of the move
    */
   public void executeMove(String moveToBeExecuted) {
-    Move move = null;
-    String[] parts = moveToBeExecuted.split("-");
-    if (parts.length == 2)
-      move = new Move(Square.valueOf(parts[0]), Square.valueOf(parts[1]), -1);
-    else if (parts.length == 3)
-      move = new Move(Square.valueOf(parts[0]), Square.valueOf(parts[1]), Integer.parseInt(parts[2]));
-    assert move != null;
-
-    Piece piece = getPieceAt(move.getSourceSquare());
-    if (piece == Piece.GaulTower || piece == Piece.RomanTower) executeTowerMove(move);
-    else if (piece == Piece.GaulCatapult || piece == Piece.RomanCatapult) executeCatapultMove(move);
+    applyMove(parseMove(moveToBeExecuted));
+  }
+
+  /**
+   * Convert the string representation of a move to its integer encoding for the current position.
+   * @param move The string representation of the move, e.g. "a1-a3" or "b2-b3-2"
+   * @return The integer encoding of the move
+   */
+  public int parseMove(String move) {
+    if (move.length() != 5 && move.length() != 7)
+      throw new IllegalArgumentException("Invalid move: " + move);
+    int sourceSquare = parseSquare(move, 0);
+    int destinationSquare = parseSquare(move, 3);
+    int numberOfPiecesMoved = (move.length() == 7) ? move.charAt(6) - '0' : -1;
+
+    Piece movingPiece = getPieceAt(sourceSquare);
+    if (movingPiece == null)
+      throw new IllegalArgumentException("There is no piece to move: " + move);
+    Piece capturedPiece = getPieceAt(destinationSquare);
+    if (capturedPiece != null && capturedPiece.isRoman() == movingPiece.isRoman())
+      capturedPiece = null;
+    return Move.encode(sourceSquare, destinationSquare, numberOfPiecesMoved, movingPiece,
+        capturedPiece);
+  }
+
+  private static int parseSquare(String move, int index) {
+    int file = move.charAt(index) - 'a';
+    int rank = move.charAt(index + 1) - '1';
+    if (file < 0 || file > 7 || rank < 0 || rank > 6)
+      throw new IllegalArgumentException("Invalid square in move: " + move);
+    return file * 7 + rank;
+  }
+
+  /**
+   * Make a move, so that it can later be undone with {@link #unmakeMove(int)}.
+   * @param move The integer encoding of the move
+   */
+  public void makeMove(int move) {
+    int base = ply * UNDO_ENTRY_SIZE;
+    undoStack[base] = gaulWalls;
+    undoStack[base + 1] = gaulTowers;
+    undoStack[base + 2] = gaulCatapults;
+    undoStack[base + 3] = romanWalls;
+    undoStack[base + 4] = romanTowers;
+    undoStack[base + 5] = romanCatapults;
+    undoStack[base + 6] = zobrist;
+    undoStack[base + 7] = pack(romanPieceSquareScore, gaulPieceSquareScore);
+    undoStack[base + 8] = pack(romanMaterial, gaulMaterial);
+    moveStack[ply++] = move;
+    if (accumulator != null) accumulator.push();
+
+    applyMove(move);
+    assert isMailboxConsistent() : "Mailbox out of sync after move " + Move.toString(move);
+  }
+
+  /**
+   * Undo the last move made with {@link #makeMove(int)}.
+   * @param move The integer encoding of the move
+   */
+  public void unmakeMove(int move) {
+    assert ply > 0 && moveStack[ply - 1] == move : "Moves must be unmade in reverse order";
+    int base = --ply * UNDO_ENTRY_SIZE;
+    gaulWalls = undoStack[base];
+    gaulTowers = undoStack[base + 1];
+    gaulCatapults = undoStack[base + 2];
+    romanWalls = undoStack[base + 3];
+    romanTowers = undoStack[base + 4];
+    romanCatapults = undoStack[base + 5];
+    zobrist = undoStack[base + 6];
+    romanPieceSquareScore = (int) (undoStack[base + 7] >> 32);
+    gaulPieceSquareScore = (int) undoStack[base + 7];
+    romanMaterial = (int) (undoStack[base + 8] >> 32);
+    gaulMaterial = (int) undoStack[base + 8];
+    updateDerivedBitboards();
+
+    int sourceSquare = Move.getSourceSquare(move);
+    int destinationSquare = Move.getDestinationSquare(move);
+    updateMailbox(sourceSquare);
+    updateMailbox(destinationSquare);
+    updateMailbox((sourceSquare + destinationSquare) >> 1);
 
     playerToMove = (playerToMove == 'r') ? 'g' : 'r';
+    if (accumulator != null) accumulator.pop();
+    assert isMailboxConsistent() : "Mailbox out of sync after unmaking " + Move.toString(move);
   }
 
   /**
-   * Helper method to execute a catapult move.
+   * Pack two ints into one long for the undo stack.
+   */
+  private static long pack(int high, int low) {
+    return ((long) high << 32) | (low & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Recompute the bitboards, that are combinations of the six piece bitboards.
+   */
+  private void updateDerivedBitboards() {
+    gauls = gaulWalls | gaulTowers | gaulCatapults;
+    romans = romanWalls | romanTowers | romanCatapults;
+    walls = gaulWalls | romanWalls;
+    towers = gaulTowers | romanTowers;
+    catapults = gaulCatapults | romanCatapults;
+    occupied = gauls | romans;
+  }
+
+  /**
+   * Change the bitboards according to a move and pass the turn to the other player.
+   * @param move The integer encoding of the move
+   */
+  private void applyMove(int move) {
+    int sourceSquare = Move.getSourceSquare(move);
+    Piece piece = getPieceAt(sourceSquare);
+    if (piece.isTower()) executeTowerMove(move, sourceSquare);
+    else if (piece.isCatapult()) executeCatapultMove(move, sourceSquare);
+
+    switchPlayerToMove();
+  }
+
+  /**
+   * Helper method to execute a catapult move. The thrown stone becomes a wall, when it lands on an
+   * empty square, and otherwise takes one stone from the attacked piece.
    * @param move The move to be executed
+   * @param sourceSquare The square of the catapult
    */
-  private void executeCatapultMove(Move move) {
-    downgradeCatapult(move.getSourceSquare(), 1);
-    Piece attackedPiece = getPieceAt(move.getDestinationSquare());
+  private void executeCatapultMove(int move, int sourceSquare) {
+    int destinationSquare = Move.getDestinationSquare(move);
+    downgradeCatapult(sourceSquare, 1);
+    Piece attackedPiece = getPieceAt(destinationSquare);
     if (attackedPiece == null) {
-      setPieceAtSquare((playerToMove == 'r') ? 'C' : 'c', move.getDestinationSquare());
-    } else if ((walls & move.getDestinationSquare().bitboardMask()) > 0) {
-      removePieceAt(move.getDestinationSquare());
-    } else if ((towers & move.getDestinationSquare().bitboardMask()) > 0) {
-      downgradeTower(move.getDestinationSquare(), 1);
-    } else if ((catapults & move.getDestinationSquare().bitboardMask()) > 0) {
-      downgradeCatapult(move.getDestinationSquare(), 1);
+      setPieceAtSquare(Piece.wallOf(playerToMove), destinationSquare);
+    } else if (attackedPiece.isWall()) {
+      removePieceAt(destinationSquare);
+    } else if (attackedPiece.isTower()) {
+      downgradeTower(destinationSquare, 1);
+    } else if (attackedPiece.isCatapult()) {
+      downgradeCatapult(destinationSquare, 1);
     }
   }
 
   /**
    * Helper method to execute a tower move.
    * @param move The move to be executed
+   * @param sourceSquare The square of the tower
    */
-  private void executeTowerMove(Move move) {
-    int distance = move.getSourceSquare().distanceTo(move.getDestinationSquare());
+  private void executeTowerMove(int move, int sourceSquare) {
+    int destinationSquare = Move.getDestinationSquare(move);
+    int distance = Square.distance(sourceSquare, destinationSquare);
     if (distance == 2) {
-      removePieceAt(move.getSourceSquare());
-      upgradePiece(move.getSourceSquare().getInterveningSquare(move.getDestinationSquare()));
-      upgradePiece(move.getDestinationSquare());
+      removePieceAt(sourceSquare);
+      upgradePiece((sourceSquare + destinationSquare) / 2);
+      upgradePiece(destinationSquare);
     } else if (distance == 1) {
-      if ((walls & move.getDestinationSquare().bitboardMask()) > 0) {
-        downgradeTower(move.getSourceSquare(), 1);
-        removePieceAt(move.getDestinationSquare());
-      } else if ((catapults & move.getDestinationSquare().bitboardMask()) > 0) {
-        downgradeTower(move.getSourceSquare(), move.getNumberOfPiecesMoved());
-        downgradeCatapult(move.getDestinationSquare(), move.getNumberOfPiecesMoved());
+      long destinationMask = 1L << destinationSquare;
+      if ((walls & destinationMask) != 0) {
+        downgradeTower(sourceSquare, 1);
+        removePieceAt(destinationSquare);
+      } else if ((catapults & destinationMask) != 0) {
+        downgradeTower(sourceSquare, Move.getNumberOfPiecesMoved(move));
+        downgradeCatapult(destinationSquare, Move.getNumberOfPiecesMoved(move));
       }
     }
   }
 
   /**
-   * Downgrade a tower to another piece.
+   * Downgrade a tower to another piece of the same side.
    * @param square The square of the tower
    * @param amount 1 downgrades the tower to a wall, 2 removes the tower
    */
-  private void downgradeTower(Square square, int amount) {
+  private void downgradeTower(int square, int amount) {
+    Piece downgraded = getPieceAt(square).downgrade(amount);
     removePieceAt(square);
-    if (amount == 1) setPieceAtSquare((playerToMove == 'r') ? 'W' : 'w', square);
+    if (downgraded != null) setPieceAtSquare(downgraded, square);
   }
 
   /**
-   * Downgrade a catapult to another piece.
+   * Downgrade a catapult to another piece of the same side.
    * @param square The square of the catapult
    * @param amount 1 downgrades the catapult to a tower, 2 downgrades it to a wall
    */
-  private void downgradeCatapult(Square square, int amount) {
+  private void downgradeCatapult(int square, int amount) {
+    Piece downgraded = getPieceAt(square).downgrade(amount);
     removePieceAt(square);
-    if (amount == 1) {
-      setPieceAtSquare((playerToMove == 'r') ? 'T' : 't', square);
-    } else if (amount == 2) {
-      setPieceAtSquare((playerToMove == 'r') ? 'W' : 'w', square);
-    }
+    if (downgraded != null) setPieceAtSquare(downgraded, square);
   }
 
   /**
    * Upgrade a piece to the next strongest one.
    * @param square The square of the piece
    */
-  private void upgradePiece(Square square) {
+  private void upgradePiece(int square) {
     Piece piece = getPieceAt(square);
     if (piece == null) {
-      setPieceAtSquare((playerToMove == 'r') ? 'W' : 'w', square);
+      setPieceAtSquare(Piece.wallOf(playerToMove), square);
       return;
     }
     removePieceAt(square);
-    switch (piece) {
-      case GaulWall:
-        setPieceAtSquare('t', square);
-        break;
-      case RomanWall:
-        setPieceAtSquare('T', square);
-        break;
-      case GaulTower:
-        setPieceAtSquare('c', square);
-        break;
-      case RomanTower:
-        setPieceAtSquare('C', square);
-        break;
-    }
+    setPieceAtSquare(piece.upgrade(), square);
   }
 
   /**
@@ -435,218 +798,300 @@ public class Board {
     return BoardRating.getRating(this);
   }
 
+  /**
+   * Lazy rating function of the board for a search with an alpha-beta window. The neighbourhood
+   * terms are only computed, if they can bring the rating into the window.
+   * @param alpha The lower bound of the window, from the view of the player to move
+   * @param beta The upper bound of the window, from the view of the player to move
+   * @return The rating from the view of the player to move, or a bound on it outside the window
+   */
+  public int getRating(int alpha, int beta) {
+    return BoardRating.getRating(this, alpha, beta);
+  }
+
+  /**
+   * Getter for the cache of the rating function, which is shared by all the boards.
+   */
+  public static EvaluationCache getEvaluationCache() {
+    return BoardRating.evaluationCache;
+  }
+
+  /**
+   * Replace the cache of the rating function, e.g. to change its size or replacement policy.
+   * @param evaluationCache The new cache, which is shared by all the boards
+   */
+  public static void setEvaluationCache(EvaluationCache evaluationCache) {
+    BoardRating.evaluationCache = evaluationCache;
+  }
+
   /**
    * The move generator.
    * @return A string array that contatins all the moves, decoded according to the rules defined
    */
   public String[] generateMoves() {
-    List<Move> moves = new ArrayList<>();
-    long piecesToMove = (playerToMove == 'r') ? romans : gauls;
+    int[] moves = new int[MAX_MOVES];
+    int numberOfMoves = generateMoves(moves);
+    String[] rv = new String[numberOfMoves];
+    for (int i = 0; i < numberOfMoves; i++) rv[i] = Move.toString(moves[i]);
+    return rv;
+  }
+
+  /**
+   * The move generator for the search, that writes the integer encoding of the moves into a
+   * buffer. The moves are generated set-wise: all the pieces of one kind are shifted in one
+   * direction at once and the destinations of one kind of move are found with a single mask.
+   * @param moves The buffer for the moves, which needs to hold at least {@link #MAX_MOVES} moves
+   * @return The number of moves generated
+   */
+  public int generateMoves(int[] moves) {
+    return generateQuietMoves(moves, generateAttackMoves(moves, 0));
+  }
+
+  /**
+   * Generate all the catapult shots and the tower moves that attack an enemy wall or catapult.
+   * @param moves The buffer for the moves
+   * @param numberOfMoves The number of moves already in the buffer
+   * @return The number of moves in the buffer after the attack moves have been added
+   */
+  public int generateAttackMoves(int[] moves, int numberOfMoves) {
+    boolean romansToMove = playerToMove == 'r';
+    long piecesToMove = romansToMove ? romans : gauls;
+    long enemyPieces = romansToMove ? gauls : romans;
 
     // Catapult Moves
-    List<Square> catapultToMoveSquares = getSquaresWithPieces(piecesToMove & catapults);
-    for (Square square: catapultToMoveSquares) {
-      generateCatapultMovesFromSquare(square, moves);
+    Piece catapult = romansToMove ? Piece.RomanCatapult : Piece.GaulCatapult;
+    long ownCatapults = piecesToMove & catapults;
+    if (ownCatapults != 0) {
+      for (int direction: romansToMove ? MoveTables.ROMAN_CATAPULT_DIRECTIONS
+          : MoveTables.GAUL_CATAPULT_DIRECTIONS) {
+        int offset = MoveTables.DIRECTION_OFFSETS[direction];
+        long reached = MoveTables.shift(ownCatapults, direction);
+        for (int distance = 2; distance <= 3; distance++) {
+          reached = MoveTables.shift(reached, direction);
+          for (long targets = reached & ~piecesToMove; targets != 0; targets &= targets - 1) {
+            int dest = Long.numberOfTrailingZeros(targets);
+            moves[numberOfMoves++] =
+                Move.encode(dest - distance * offset, dest, -1, catapult, getPieceAt(dest));
+          }
+        }
+      }
     }
 
-    // Tower Moves
-    List<Square> towerToMoveSquares = getSquaresWithPieces(piecesToMove & towers);
-    for (Square square: towerToMoveSquares) {
-      generateTowerMovesFromSquare(square, moves);
+    // Tower Attacks
+    Piece tower = romansToMove ? Piece.RomanTower : Piece.GaulTower;
+    Piece enemyWall = romansToMove ? Piece.GaulWall : Piece.RomanWall;
+    Piece enemyCatapult = romansToMove ? Piece.GaulCatapult : Piece.RomanCatapult;
+    long ownTowers = piecesToMove & towers;
+    long enemyWalls = enemyPieces & walls;
+    long enemyCatapults = enemyPieces & catapults;
+    if ((enemyWalls | enemyCatapults) == 0) return numberOfMoves;
+    for (int direction = 0; direction < 8; direction++) {
+      int offset = MoveTables.DIRECTION_OFFSETS[direction];
+      long firstStep = MoveTables.shift(ownTowers, direction);
+      for (long targets = firstStep & enemyCatapults; targets != 0; targets &= targets - 1) {
+        int dest = Long.numberOfTrailingZeros(targets);
+        moves[numberOfMoves++] = Move.encode(dest - offset, dest, 1, tower, enemyCatapult);
+        moves[numberOfMoves++] = Move.encode(dest - offset, dest, 2, tower, enemyCatapult);
+      }
+      for (long targets = firstStep & enemyWalls; targets != 0; targets &= targets - 1) {
+        int dest = Long.numberOfTrailingZeros(targets);
+        moves[numberOfMoves++] = Move.encode(dest - offset, dest, -1, tower, enemyWall);
+      }
     }
 
-    return moveListToStringArray(moves);
+    return numberOfMoves;
   }
 
   /**
-   * Given a square that has a catapult, all its moves are generated.
-   * @param srcSquare The square of the catapult
-   * @param moves All of its moves
+   * Generate all the tower moves, that distribute the tower's stones on the next two squares.
+   * @param moves The buffer for the moves
+   * @param numberOfMoves The number of moves already in the buffer
+   * @return The number of moves in the buffer after the quiet moves have been added
    */
-  private void generateCatapultMovesFromSquare(Square srcSquare, List<Move> moves) {
-    for (int adjacentCellIndex: getCatapultAdjacentCellsIndexes(srcSquare)) {
-      Square destSquare = Square.findSquareByShiftWidth(srcSquare.shiftWidth + adjacentCellIndex);
-      Piece pieceAtAdjacentCell = getPieceAt(destSquare);
-      if (pieceAtAdjacentCell == null
-          || (playerToMove == 'r' && (gauls & destSquare.bitboardMask()) > 0)
-          || (playerToMove == 'g' && (romans & destSquare.bitboardMask()) > 0)) {
-        moves.add(new Move(srcSquare, destSquare, -1));
+  public int generateQuietMoves(int[] moves, int numberOfMoves) {
+    boolean romansToMove = playerToMove == 'r';
+    long piecesToMove = romansToMove ? romans : gauls;
+    Piece tower = romansToMove ? Piece.RomanTower : Piece.GaulTower;
+    long ownTowers = piecesToMove & towers;
+    long passableSquares = ~occupied | (piecesToMove & ~catapults);
+    for (int direction = 0; direction < 8; direction++) {
+      int offset = MoveTables.DIRECTION_OFFSETS[direction];
+      long firstStep = MoveTables.shift(ownTowers, direction) & passableSquares;
+      long secondStep = MoveTables.shift(firstStep, direction) & passableSquares;
+      for (long targets = secondStep; targets != 0; targets &= targets - 1) {
+        int dest = Long.numberOfTrailingZeros(targets);
+        moves[numberOfMoves++] = Move.encode(dest - 2 * offset, dest, -1, tower, null);
       }
     }
 
+    return numberOfMoves;
   }
 
   /**
-   * Get all the possible squares, where a catapult could land its stones.
-   * @param srcSquare The square of the catapult
-   * @return All the possible squares
+   * Check whether a move, e.g. one taken from a transposition table, can be played in the current
+   * position, without generating all the moves.
+   * @param move The integer encoding of the move
+   * @return true, if the move would be generated by the move generator, false otherwise
    */
-  private List<Integer> getCatapultAdjacentCellsIndexes(Square srcSquare) {
-    List<Integer> cellsDistanceTwo = new ArrayList<>(Arrays.asList(-14, 14));
-    if (playerToMove == 'r') {
-      cellsDistanceTwo.addAll(Arrays.asList(-12, 2, 16));
-    } else {
-      cellsDistanceTwo.addAll(Arrays.asList(-16, -2, 12));
+  public boolean isPseudoLegal(int move) {
+    if (move == Move.NONE) return false;
+    int src = Move.getSourceSquare(move);
+    int dest = Move.getDestinationSquare(move);
+    if (src >= 56 || dest >= 56) return false;
+    Piece movingPiece = Move.getMovingPiece(move);
+    if (movingPiece != getPieceAt(src) || movingPiece.isRoman() != (playerToMove == 'r'))
+      return false;
+    Piece capturedPiece = Move.getCapturedPiece(move);
+    Piece pieceAtDestination = getPieceAt(dest);
+    long destinationMask = 1L << dest;
+
+    if (movingPiece.isCatapult()) {
+      long[] catapultTargets = movingPiece.isRoman()
+          ? MoveTables.ROMAN_CATAPULT_TARGETS : MoveTables.GAUL_CATAPULT_TARGETS;
+      return (catapultTargets[src] & destinationMask) != 0
+          && capturedPiece == pieceAtDestination
+          && (capturedPiece == null || capturedPiece.isRoman() != movingPiece.isRoman())
+          && Move.getNumberOfPiecesMoved(move) == -1;
     }
 
-    List<Integer> intermediateList = new ArrayList<>();
-    for (int cell: cellsDistanceTwo) {
-      try {
-        if (srcSquare.distanceTo(Square.findSquareByShiftWidth(srcSquare.shiftWidth + cell)) <= 2)
-          intermediateList.add(cell);
-      } catch (IllegalArgumentException e) {
-        continue;
-      }
+    if ((MoveTables.TOWER_STEP_TARGETS[src] & destinationMask) != 0) {
+      if (capturedPiece == null || capturedPiece != pieceAtDestination
+          || capturedPiece.isRoman() == movingPiece.isRoman()) return false;
+      return capturedPiece.isCatapult() ? Move.getNumberOfPiecesMoved(move) != -1
+          : capturedPiece.isWall() && Move.getNumberOfPiecesMoved(move) == -1;
     }
 
-    List<Integer> finalList = new ArrayList<>();
-    for (int cell: intermediateList) {
-      finalList.add(cell);
-      try {
-        Square cellDistanceTwo = Square.findSquareByShiftWidth(srcSquare.shiftWidth + cell);
-        Square newCell = Square.findSquareByShiftWidth(cellDistanceTwo.shiftWidth + cell/2);
-        if (cellDistanceTwo.distanceTo(newCell) == 1) {
-          finalList.add(cell + cell/2);
-        }
-      } catch (IllegalArgumentException e) {
-        continue;
-      }
+    if ((MoveTables.TOWER_TWO_STEP_TARGETS[src] & destinationMask) != 0) {
+      long ownPieces = movingPiece.isRoman() ? romans : gauls;
+      long passableSquares = ~occupied | (ownPieces & ~catapults);
+      return capturedPiece == null && Move.getNumberOfPiecesMoved(move) == -1
+          && (passableSquares & destinationMask) != 0
+          && (passableSquares & (1L << ((src + dest) >> 1))) != 0;
     }
 
-    return finalList;
+    return false;
   }
 
   /**
-   * Given a square that has a tower, all its moves are generated.
-   * @param srcSquare The square of the tower
-   * @param moves All of its moves
+   * Count the leaf nodes of the game tree up to a certain depth, in order to verify the move
+   * generator and measure its speed. See {@link Perft} for the divide, hashed and parallel versions.
+   * @param depth The depth of the game tree
+   * @return The number of leaf nodes
    */
-  private void generateTowerMovesFromSquare(Square srcSquare, List<Move> moves) {
-    for (int adjacentCellIndex: getTowerAdjacentCellsIndexes(srcSquare)) {
-      Square destSquare = Square.findSquareByShiftWidth(srcSquare.shiftWidth + adjacentCellIndex);
-      Piece pieceAtAdjacentCell = getPieceAt(destSquare);
-      if (playerToMove == 'r' && pieceAtAdjacentCell == Piece.GaulCatapult
-          || playerToMove == 'g' && pieceAtAdjacentCell == Piece.RomanCatapult) {
-        moves.add(new Move(srcSquare, destSquare, 1));
-        moves.add(new Move(srcSquare, destSquare, 2));
-      } else if (playerToMove == 'r' && pieceAtAdjacentCell == Piece.GaulWall
-          || playerToMove == 'g' && pieceAtAdjacentCell == Piece.RomanWall) {
-        moves.add(new Move(srcSquare, destSquare, -1));
-      } else if (pieceAtAdjacentCell == null
-          || (playerToMove == 'r' && (pieceAtAdjacentCell == Piece.RomanWall || pieceAtAdjacentCell == Piece.RomanTower))
-          || (playerToMove == 'g' && (pieceAtAdjacentCell == Piece.GaulWall || pieceAtAdjacentCell == Piece.GaulTower))) {
-        checkAndGenerateTowerSilentMove(srcSquare, adjacentCellIndex, moves);
-      }
-    }
-
+  public long perft(int depth) {
+    return perft(depth, new int[Math.max(depth, 1)][MAX_MOVES]);
   }
 
   /**
-   * Get all the possible squares, where a tower could land its stones.
-   * @param square The square of the tower
-   * @return All the possible squares
-   */
-  private List<Integer> getTowerAdjacentCellsIndexes(Square square) {
-    List<Integer> adjacentCellsIndexes = new ArrayList<>();
-    if (square == Square.a7) adjacentCellsIndexes.addAll(Arrays.asList(-1, 6, 7));
-    else if (square == Square.a1) adjacentCellsIndexes.addAll(Arrays.asList(1, 7, 8));
-    else if (square == Square.h7) adjacentCellsIndexes.addAll(Arrays.asList(-1, -7, -8));
-    else if (square == Square.h1) adjacentCellsIndexes.addAll(Arrays.asList(1, -7, -6));
-    else if ((square.bitboardMask() & File.A.bitboardMask()) > 0)
-      adjacentCellsIndexes.addAll(Arrays.asList(1, 6, 8, 7, -1));
-    else if ((square.bitboardMask() & File.H.bitboardMask()) > 0)
-      adjacentCellsIndexes.addAll(Arrays.asList(1, -7, -8, -6, -1));
-    else if ((square.bitboardMask() & Rank.FIRST.bitboardMask()) > 0)
-     adjacentCellsIndexes.addAll(Arrays.asList(-6, -7, 1, 7, 8));
-    else if ((square.bitboardMask() & Rank.SEVENTH.bitboardMask()) > 0)
-      adjacentCellsIndexes.addAll(Arrays.asList(-8, -7, -1, 7, 6));
-    else adjacentCellsIndexes.addAll(Arrays.asList(-7, -8, -6, -1, 1, 7, 8, 6));
-    return adjacentCellsIndexes;
-  }
-
-  /**
-   * Checks the second square needed for a silent tower move.
-   * @param srcSquare The square of the tower
-   * @param adjacentCellIndex The first square of the tower's move
-   * @param moves The array containing all the moves
-   */
-  private void checkAndGenerateTowerSilentMove(Square srcSquare, int adjacentCellIndex,
-      List<Move> moves) {
-    try {
-      Square destSquare = Square.findSquareByShiftWidth(srcSquare.shiftWidth + 2 * adjacentCellIndex);
-      if (srcSquare.distanceTo(destSquare) > 2) return;
-      Piece piece = getPieceAt(destSquare);
-      if (piece == null
-          || (playerToMove == 'r' && (piece == Piece.RomanWall || piece == Piece.RomanTower))
-          || (playerToMove == 'g' && (piece == Piece.GaulWall || piece == Piece.GaulTower)))
-        moves.add(new Move(srcSquare, destSquare, -1));
-    } catch (IllegalArgumentException e) {
-      return;
+   * Count the leaf nodes of the game tree with preallocated move buffers.
+   * @param depth The depth of the game tree
+   * @param moveBuffers One move buffer for every depth
+   * @return The number of leaf nodes
+   */
+  long perft(int depth, int[][] moveBuffers) {
+    if (depth == 0) return 1;
+    int[] moves = moveBuffers[depth - 1];
+    int numberOfMoves = generateMoves(moves);
+    if (depth == 1) return numberOfMoves;
+
+    long nodes = 0;
+    for (int i = 0; i < numberOfMoves; i++) {
+      makeMove(moves[i]);
+      nodes += perft(depth - 1, moveBuffers);
+      unmakeMove(moves[i]);
     }
+    return nodes;
   }
 
   /**
-   * Get all the square on the board, on which a certain type of piece is located
+   * Count the moves of a player without listing them, using the same set-wise computation as the
+   * move generator.
+   * @param player The player whose moves are counted ('r' for Romans, 'g' for Gauls)
+   * @return The number of moves the player would have, if it was their turn
    */
-  private List<Square> getSquaresWithPieces(long pieces) {
-    List<Square> squares = new ArrayList<>();
+  public int mobility(char player) {
+    int mobility = 0;
+    boolean romansToMove = player == 'r';
+    long piecesToMove = romansToMove ? romans : gauls;
+    long enemyPieces = romansToMove ? gauls : romans;
+
+    long ownCatapults = piecesToMove & catapults;
+    if (ownCatapults != 0) {
+      for (int direction: romansToMove ? MoveTables.ROMAN_CATAPULT_DIRECTIONS
+          : MoveTables.GAUL_CATAPULT_DIRECTIONS) {
+        long reached = MoveTables.shift(ownCatapults, direction);
+        for (int distance = 2; distance <= 3; distance++) {
+          reached = MoveTables.shift(reached, direction);
+          mobility += Long.bitCount(reached & ~piecesToMove);
+        }
+      }
+    }
 
-    long i = 0;
-    while (pieces > 0) {
-      if ((pieces & 1) == 1) squares.add(Square.findSquareByShiftWidth(i));
-      pieces >>= 1;
-      i++;
+    long ownTowers = piecesToMove & towers;
+    long enemyWalls = enemyPieces & walls;
+    long enemyCatapults = enemyPieces & catapults;
+    long passableSquares = ~occupied | (piecesToMove & ~catapults);
+    for (int direction = 0; direction < 8; direction++) {
+      long firstStep = MoveTables.shift(ownTowers, direction);
+      mobility += 2 * Long.bitCount(firstStep & enemyCatapults);
+      mobility += Long.bitCount(firstStep & enemyWalls);
+      mobility += Long.bitCount(
+          MoveTables.shift(firstStep & passableSquares, direction) & passableSquares);
     }
 
-    return squares;
+    return mobility;
   }
 
   /**
    * Set piece at the given square.
-   * @param c The FEN character of the piece
-   * @param square The square, onto which the piece has to be placed
-   */
-  private void setPieceAtSquare(char c, Square square) {
-    switch (c) {
-      case 'w':
-        gaulWalls |= square.bitboardMask();
-        walls |= square.bitboardMask();
-        gauls |= square.bitboardMask();
+   * @param piece The piece to be placed
+   * @param square The shift width of the square, onto which the piece has to be placed
+   */
+  private void setPieceAtSquare(Piece piece, int square) {
+    long mask = 1L << square;
+    switch (piece) {
+      case GaulWall:
+        gaulWalls |= mask;
+        walls |= mask;
+        gauls |= mask;
         break;
-      case 't':
-        gaulTowers |= square.bitboardMask();
-        towers |= square.bitboardMask();
-        gauls |= square.bitboardMask();
+      case GaulTower:
+        gaulTowers |= mask;
+        towers |= mask;
+        gauls |= mask;
         break;
-      case 'c':
-        gaulCatapults |= square.bitboardMask();
-        catapults |= square.bitboardMask();
-        gauls |= square.bitboardMask();
+      case GaulCatapult:
+        gaulCatapults |= mask;
+        catapults |= mask;
+        gauls |= mask;
         break;
-      case 'W':
-        romanWalls |= square.bitboardMask();
-        walls |= square.bitboardMask();
-        romans |= square.bitboardMask();
+      case RomanWall:
+        romanWalls |= mask;
+        walls |= mask;
+        romans |= mask;
         break;
-      case 'T':
-        romanTowers |= square.bitboardMask();
-        towers |= square.bitboardMask();
-        romans |= square.bitboardMask();
+      case RomanTower:
+        romanTowers |= mask;
+        towers |= mask;
+        romans |= mask;
         break;
-      case 'C':
-        romanCatapults |= square.bitboardMask();
-        catapults |= square.bitboardMask();
-        romans |= square.bitboardMask();
+      case RomanCatapult:
+        romanCatapults |= mask;
+        catapults |= mask;
+        romans |= mask;
         break;
     }
-    occupied |= square.bitboardMask();
-  }
-
-  private String[] moveListToStringArray(List<Move> list) {
-    String[] rv = new String[list.size()];
-    int i = 0;
-    for (Move m: list) rv[i++] = m.toString();
-    return rv;
+    occupied |= mask;
+    mailbox[square] = (byte) (piece.ordinal() + 1);
+    if (accumulator != null) accumulator.add(piece.ordinal() * 56 + square);
+    if (piece.isRoman()) {
+      romanPieceSquareScore += BoardRating.getPieceSquareValue(piece, square);
+      romanMaterial += piece.pieceValue;
+    } else {
+      gaulPieceSquareScore += BoardRating.getPieceSquareValue(piece, square);
+      gaulMaterial += piece.pieceValue;
+    }
+    zobrist ^= ZOBRIST_KEYS[piece.zobristIndex * 56 + square];
   }
 
   /**
@@ -655,20 +1100,40 @@ public class Board {
    * @return The piece type of the square's piece
    */
   Piece getPieceAt(Square square) {
+    return getPieceAt((int) square.shiftWidth);
+  }
+
+  /**
+   * Get the piece type of a square.
+   * @param square The shift width of the square, whose piece type has to be found
+   * @return The piece type of the square's piece
+   */
+  Piece getPieceAt(int square) {
+    int code = mailbox[square];
+    return (code == 0) ? null : Piece.VALUES[code - 1];
+  }
+
+  /**
+   * Get the piece type of a square from the bitboards.
+   * @param square The shift width of the square, whose piece type has to be found
+   * @return The piece type of the square's piece
+   */
+  private Piece getPieceFromBitboards(int square) {
+    long mask = 1L << square;
 
-    if ((occupied & square.bitboardMask()) == 0) {
+    if ((occupied & mask) == 0) {
       return null;
-    } else if ((romanWalls & square.bitboardMask()) > 0) {
+    } else if ((romanWalls & mask) != 0) {
       return Piece.RomanWall;
-    } else if ((romanTowers & square.bitboardMask()) > 0) {
+    } else if ((romanTowers & mask) != 0) {
       return Piece.RomanTower;
-    } else if ((romanCatapults & square.bitboardMask()) > 0) {
+    } else if ((romanCatapults & mask) != 0) {
       return Piece.RomanCatapult;
-    } else if ((gaulWalls & square.bitboardMask()) > 0) {
+    } else if ((gaulWalls & mask) != 0) {
       return Piece.GaulWall;
-    } else if ((gaulTowers & square.bitboardMask()) > 0) {
+    } else if ((gaulTowers & mask) != 0) {
       return Piece.GaulTower;
-    } else if ((gaulCatapults & square.bitboardMask()) > 0) {
+    } else if ((gaulCatapults & mask) != 0) {
       return Piece.GaulCatapult;
     }
 
@@ -676,6 +1141,27 @@ public class Board {
 
   }
 
+  /**
+   * Set the mailbox entry of a square to the piece on the bitboards.
+   * @param square The shift width of the square
+   */
+  private void updateMailbox(int square) {
+    Piece piece = getPieceFromBitboards(square);
+    mailbox[square] = (byte) ((piece == null) ? 0 : piece.ordinal() + 1);
+  }
+
+  /**
+   * Debug check, that the mailbox agrees with the bitboards on every square. It is called in assert
+   * statements, so it only costs time, when assertions are enabled.
+   * @return true, if the mailbox and the bitboards agree, false otherwise
+   */
+  boolean isMailboxConsistent() {
+    for (int square = 0; square < 56; square++) {
+      if (getPieceAt(square) != getPieceFromBitboards(square)) return false;
+    }
+    return true;
+  }
+
   /**
    * Override the equals method to check equality of all the bitboards.
    * @param other The other board to check equality to
@@ -1,9 +1,7 @@
 package murusgallicus.core;
 
-import java.util.HashMap;
-import java.util.Map;
 import murusgallicus.core.Board.Piece;
-import murusgallicus.core.Board.Square;
+import murusgallicus.core.Board.Rank;
 
 /**
  * A class where the rating calculation of the board happens.
@@ -11,14 +9,48 @@ import murusgallicus.core.Board.Square;
 class BoardRating {
 
   /**
-   * The Transposition Table for quicker computation of the rating function.
+   * The cache for quicker computation of the rating function, keyed on the Zobrist key of the
+   * board. Its size in MB is set with the system property murusgallicus.evalcache, and its
+   * replacement policy with the system property murusgallicus.evalcachepolicy set to "always" or
+   * "age".
    */
-  private static Map<Board, Integer> transpositionTable = new HashMap<>();
+  static EvaluationCache evaluationCache = new EvaluationCache(
+      Integer.getInteger("murusgallicus.evalcache", EvaluationCache.DEFAULT_SIZE_IN_MB),
+      EvaluationCache.ReplacementPolicy.valueOf(
+          System.getProperty("murusgallicus.evalcachepolicy", "always").toUpperCase()));
+
+  private static final long RANK_ONE = Rank.FIRST.bitboardMask();
+  private static final long RANK_TWO = Rank.SECOND.bitboardMask();
+  private static final long RANK_THREE = Rank.THIRD.bitboardMask();
+  private static final long RANK_FIVE = Rank.FIFTH.bitboardMask();
+  private static final long RANK_SIX = Rank.SIXTH.bitboardMask();
+  private static final long RANK_SEVEN = Rank.SEVENTH.bitboardMask();
 
   /**
    * A number that defines Checkmate in the rating function.
    */
-  private static int MATE = 100000;
+  static final int MATE = 100000;
+
+  /**
+   * The heuristic margin of the lazy evaluation for the neighbourhood terms. It is not a bound:
+   * summed up over the pieces, the term weights allow swings of several hundred points, and a
+   * margin that large would make the lazy evaluation useless. The largest absolute sum of the
+   * terms measured by {@link Tuner#calibrateLazyMargin(java.nio.file.Path)} is 120 over the
+   * positions of scripts/positions.txt and their successors, and 160 over the positions of
+   * scripts/data/data.csv and their successors, and the margin adds a safety factor of 1.25 to
+   * the latter. A leaf beyond the margin gets a fail-low or fail-high bound, that the full rating
+   * would contradict by the excess, and that bound can be stored in the transposition table, so
+   * the search may then rate such a leaf slightly wrong, like any other evaluation error.
+   */
+  static final int LAZY_MARGIN = 200;
+
+  /**
+   * The weights of the neighbourhood terms of the rating function.
+   */
+  static final int TOWER_WALL_IN_FRONT_BONUS = 40;
+  static final int TOWER_WALL_TWO_IN_FRONT_BONUS = 20;
+  static final int WALL_CATAPULT_BEHIND_BONUS = 30;
+  static final int ISOLATED_WALL_PENALTY = 40;
 
   /**
    * The piece square table for the roman walls.
@@ -107,140 +139,254 @@ class BoardRating {
   };
 
   /**
-   * The rating function, which given a board returns which side is winning.
+   * The piece square tables of all the pieces, indexed by the ordinal of the piece.
+   */
+  private static int[][] pieceSquareTables = {
+      gaulWallPieceSquareTable, gaulTowerPieceSquareTable, gaulCatapultPieceSquareTable,
+      romanWallPieceSquareTable, romanTowerPieceSquareTable, romanCatapultPieceSquareTable
+  };
+
+  /**
+   * Get the piece square table value of a piece. The board keeps the sum of these values for each
+   * side up to date in its piece mutators.
+   * @param piece The piece
+   * @param square The shift width of the square of the piece
+   * @return The value of the piece on the square
+   */
+  static int getPieceSquareValue(Piece piece, int square) {
+    return pieceSquareTables[piece.ordinal()][square];
+  }
+
+  /**
+   * The rating function, which given a board returns which side is winning. The piece square
+   * tables are summed up incrementally by the board, so only the neighbourhood terms are computed
+   * here.
    * @param board The board to evaluate
    * @return An integer, which is larger, when the romans are winning, and smaller, when the
    *         gauls are winning.
    */
   static int getRating(Board board) {
-    if (transpositionTable.containsKey(board)) {
-      int rating = transpositionTable.get(board);
-      return (board.getPlayerToMove() == 'r') ? rating : -rating;
-    }
+    if (EvaluationTrace.ENABLED) return getTracedRating(board);
+
+    int cachedRating = evaluationCache.get(board.zobrist, Integer.MIN_VALUE);
+    if (cachedRating != Integer.MIN_VALUE)
+      return (board.getPlayerToMove() == 'r') ? cachedRating : -cachedRating;
 
     if (board.romanTowers == 0)
       return (board.getPlayerToMove() == 'r') ? -MATE : MATE;
     else if (board.gaulTowers == 0)
       return (board.getPlayerToMove() == 'r') ? MATE : -MATE;
 
-    int rating = 0;
-    for (Square square: board.squaresFenOrder) {
-      Piece piece = board.getPieceAt(square);
-      if (piece == null)
-        continue;
-
-//      if ((board.romans & square.bitboardMask()) > 0) {
-//        rating += piece.pieceValue;
-//      } else if ((board.gauls & square.bitboardMask()) > 0) {
-//        rating -= piece.pieceValue;
-//      }
-
-      switch (piece) {
-        case RomanWall:
-          rating += getWallNeighbourhoodRating(board, square, piece);
-          rating += romanWallPieceSquareTable[(int) square.shiftWidth];
-          break;
-        case RomanTower:
-          rating += getTowerNeighbouthoodRating(board, square, piece);
-          rating += romanTowerPieceSquareTable[(int) square.shiftWidth];
-          break;
-        case RomanCatapult:
-          rating += romanCatapultPieceSquareTable[(int) square.shiftWidth];
-          break;
-        case GaulWall:
-          rating -= getWallNeighbourhoodRating(board, square, piece);
-          rating -= gaulWallPieceSquareTable[(int) square.shiftWidth];
-          break;
-        case GaulTower:
-          rating -= getTowerNeighbouthoodRating(board, square, piece);
-          rating -= gaulTowerPieceSquareTable[(int) square.shiftWidth];
-          break;
-        case GaulCatapult:
-          rating -= gaulCatapultPieceSquareTable[(int) square.shiftWidth];
-          break;
-      }
-    }
+    int rating = board.romanPieceSquareScore - board.gaulPieceSquareScore;
+    rating += getTowerNeighbouthoodRating(board);
+    rating += getWallNeighbourhoodRating(board);
 
-    transpositionTable.put(board, rating);
+    evaluationCache.put(board.zobrist, rating);
     return (board.getPlayerToMove() == 'r') ? rating : -rating;
   }
 
   /**
-   * For each tower, the tower neighbourhood gets evaluated, in order to find out what value the
-   * surrounding pieces add to the current tower.
+   * The lazy rating function for a search with an alpha-beta window. The piece square values are
+   * summed up incrementally by the board, so they are available for free, while the neighbourhood
+   * terms are expected to stay within {@link #LAZY_MARGIN}. If the piece square rating is outside
+   * of the window by more than that margin, the full rating is assumed to be outside as well, and
+   * the piece square rating moved towards the window by the margin is returned as a bound, without
+   * computing the neighbourhood terms. This is a heuristic, see {@link #LAZY_MARGIN}.
+   * @param board The board to evaluate
+   * @param alpha The lower bound of the window, from the view of the player to move
+   * @param beta The upper bound of the window, from the view of the player to move
+   * @return The rating from the view of the player to move, or a bound on it, that is outside of
+   *         the window
+   */
+  static int getRating(Board board, int alpha, int beta) {
+    if (EvaluationTrace.ENABLED) return getTracedRating(board);
+
+    if (board.romanTowers != 0 && board.gaulTowers != 0) {
+      int rating = board.romanPieceSquareScore - board.gaulPieceSquareScore;
+      if (board.getPlayerToMove() == 'g') rating = -rating;
+      if (rating + LAZY_MARGIN <= alpha) return rating + LAZY_MARGIN;
+      if (rating - LAZY_MARGIN >= beta) return rating - LAZY_MARGIN;
+    }
+    return getRating(board);
+  }
+
+  /**
+   * Sum up the neighbourhood terms of the rating function, which the lazy evaluation skips.
    * @param board The present board
-   * @param square The square, on which the tower sits
-   * @return The extra rating the tower gets, due to its surroundings
-   */
-  private static int getTowerNeighbouthoodRating(Board board, Square square, Piece piece) {
-    int extraRating = 0;
-    int[]cellOffsets = {1, 2};
-    for (int offset: cellOffsets) {
-      Piece front;
-      try {
-        int finalOffset = (piece == Piece.RomanTower) ? offset : -offset;
-        Square frontSquare = Square.findSquareByShiftWidth(square.shiftWidth + finalOffset);
-        if (square.distanceTo(frontSquare) > offset) continue;
-        front = board.getPieceAt(frontSquare);
-      } catch (IllegalArgumentException e) {
-        continue;
-      }
-      if ((piece == Piece.RomanTower && front == Piece.RomanWall
-          || piece == Piece.GaulTower && front == Piece.GaulWall)) {
-        extraRating += 40 / offset;
-        break;
-      }
+   * @return The neighbourhood rating from the view of the romans
+   */
+  static int getNeighbourhoodRating(Board board) {
+    return getTowerNeighbouthoodRating(board) + getWallNeighbourhoodRating(board);
+  }
+
+  /**
+   * The rating function of the trace mode. It computes the same rating as
+   * {@link #getRating(Board)}, but every term is computed on its own, timed and recorded in the
+   * {@link EvaluationTrace}. The evaluation cache is bypassed, so that every call is traced.
+   */
+  private static int getTracedRating(Board board) {
+    EvaluationTrace.recordCall();
+    long before = System.nanoTime();
+    int mate = (board.romanTowers == 0) ? -MATE : (board.gaulTowers == 0) ? MATE : 0;
+    long after = System.nanoTime();
+    EvaluationTrace.record(EvaluationTrace.Term.MATE_DETECTION, mate, after - before);
+    if (mate != 0) return (board.getPlayerToMove() == 'r') ? mate : -mate;
 
+    int rating = 0;
+    rating += traceSum(board, EvaluationTrace.Term.PIECE_SQUARE_WALLS, Piece.RomanWall,
+        board.romanWalls, Piece.GaulWall, board.gaulWalls);
+    rating += traceSum(board, EvaluationTrace.Term.PIECE_SQUARE_TOWERS, Piece.RomanTower,
+        board.romanTowers, Piece.GaulTower, board.gaulTowers);
+    rating += traceSum(board, EvaluationTrace.Term.PIECE_SQUARE_CATAPULTS, Piece.RomanCatapult,
+        board.romanCatapults, Piece.GaulCatapult, board.gaulCatapults);
+
+    before = System.nanoTime();
+    int term = getTowerNeighbouthoodRating(board);
+    after = System.nanoTime();
+    EvaluationTrace.record(EvaluationTrace.Term.TOWER_NEIGHBOURHOOD, term, after - before);
+    rating += term;
+
+    before = System.nanoTime();
+    term = WALL_CATAPULT_BEHIND_BONUS * countWallsWithCatapultBehind(board);
+    after = System.nanoTime();
+    EvaluationTrace.record(EvaluationTrace.Term.WALL_OCCUPIED_ADJACENCY, term, after - before);
+    rating += term;
+
+    before = System.nanoTime();
+    term = -ISOLATED_WALL_PENALTY * countIsolatedWalls(board);
+    after = System.nanoTime();
+    EvaluationTrace.record(EvaluationTrace.Term.WALL_EMPTY_ADJACENCY, term, after - before);
+    rating += term;
+
+    return (board.getPlayerToMove() == 'r') ? rating : -rating;
+  }
+
+  /**
+   * Sum up the piece square values of one piece type of both sides from scratch and record them.
+   */
+  private static int traceSum(Board board, EvaluationTrace.Term term, Piece romanPiece,
+      long romanPieces, Piece gaulPiece, long gaulPieces) {
+    long before = System.nanoTime();
+    int sum = 0;
+    for (; romanPieces != 0; romanPieces &= romanPieces - 1) {
+      sum += getPieceSquareValue(romanPiece, Long.numberOfTrailingZeros(romanPieces));
     }
-    return extraRating;
+    for (; gaulPieces != 0; gaulPieces &= gaulPieces - 1) {
+      sum -= getPieceSquareValue(gaulPiece, Long.numberOfTrailingZeros(gaulPieces));
+    }
+    long after = System.nanoTime();
+    EvaluationTrace.record(term, sum, after - before);
+    return sum;
+  }
+
+  /**
+   * For each tower, the tower neighbourhood gets evaluated, in order to find out what value the
+   * surrounding pieces add to the current tower. A tower gets a bonus for an own wall directly in
+   * front of it, or otherwise a smaller one for an own wall two squares in front of it.
+   * @param board The present board
+   * @return The extra rating of the roman towers minus the extra rating of the gaul towers
+   */
+  private static int getTowerNeighbouthoodRating(Board board) {
+    long romanWallInFront = findRomanTowersWithWallInFront(board);
+    long gaulWallInFront = findGaulTowersWithWallInFront(board);
+    return TOWER_WALL_IN_FRONT_BONUS * countTowersWithWallInFront(romanWallInFront, gaulWallInFront)
+        + TOWER_WALL_TWO_IN_FRONT_BONUS
+        * countTowersWithWallTwoInFront(board, romanWallInFront, gaulWallInFront);
   }
 
   /**
    * For each wall, the wall neighbourhood gets evaluated, in order to find out what value the
    * surrounding pieces add to the current wall.
    * @param board The present board
-   * @param square The square, on which the wall sits
-   * @return The extra rating the wall gets, due to its surroundings
-   */
-  private static int getWallNeighbourhoodRating(Board board, Square square, Piece piece) {
-    int extraRating = addExtraRatingFromAdjacentOccupiedCells(board, square, piece);
-    extraRating -= subtractExtraRatingFromAdjacentEmptyCells(board, square);
-    return extraRating;
-  }
-
-  private static int subtractExtraRatingFromAdjacentEmptyCells(Board board, Square square) {
-    int[] cellOffsets = {-8, -7, -6, -1, 1, 6, 7, 8};
-    for (int offset: cellOffsets) {
-      Piece adjacent;
-      try {
-        Square adjacentSquare = Square.findSquareByShiftWidth(square.shiftWidth + offset);
-        if (square.distanceTo(adjacentSquare) > 1) continue;
-        adjacent = board.getPieceAt(adjacentSquare);
-        if (adjacent != null) return 0;
-      } catch (IllegalArgumentException e) {
-        continue;
-      }
-    }
+   * @return The extra rating of the roman walls minus the extra rating of the gaul walls
+   */
+  private static int getWallNeighbourhoodRating(Board board) {
+    return WALL_CATAPULT_BEHIND_BONUS * countWallsWithCatapultBehind(board)
+        - ISOLATED_WALL_PENALTY * countIsolatedWalls(board);
+  }
+
+  /**
+   * Find the roman towers with an own wall directly in front of them. All the towers are found at
+   * once by shifting the wall bitboard.
+   * @param board The present board
+   * @return The bitboard of such roman towers
+   */
+  private static long findRomanTowersWithWallInFront(Board board) {
+    return board.romanTowers & (board.romanWalls >>> 1) & ~RANK_SEVEN;
+  }
+
+  /**
+   * Find the gaul towers with an own wall directly in front of them.
+   * @param board The present board
+   * @return The bitboard of such gaul towers
+   */
+  private static long findGaulTowersWithWallInFront(Board board) {
+    return board.gaulTowers & (board.gaulWalls << 1) & ~RANK_ONE;
+  }
+
+  /**
+   * Count the towers with an own wall directly in front of them.
+   * @param board The present board
+   * @return The number of such roman towers minus the number of such gaul towers
+   */
+  static int countTowersWithWallInFront(Board board) {
+    return countTowersWithWallInFront(findRomanTowersWithWallInFront(board),
+        findGaulTowersWithWallInFront(board));
+  }
 
-    return 40;
+  private static int countTowersWithWallInFront(long romanWallInFront, long gaulWallInFront) {
+    return Long.bitCount(romanWallInFront) - Long.bitCount(gaulWallInFront);
   }
 
-  private static int addExtraRatingFromAdjacentOccupiedCells(Board board, Square square, Piece piece) {
-    int extraRating = 0;
-    int offset = 3;
-    Piece behind;
-    try {
-      int finalOffset = (piece == Piece.RomanWall) ? -offset : offset;
-      Square behindSquare = Square.findSquareByShiftWidth(square.shiftWidth + finalOffset);
-      if (square.distanceTo(behindSquare) > offset) return 0;
-      behind = board.getPieceAt(behindSquare);
-    } catch (IllegalArgumentException e) {
-      return 0;
+  /**
+   * Count the towers with an own wall two squares in front of them, but not directly in front.
+   * @param board The present board
+   * @return The number of such roman towers minus the number of such gaul towers
+   */
+  static int countTowersWithWallTwoInFront(Board board) {
+    return countTowersWithWallTwoInFront(board, findRomanTowersWithWallInFront(board),
+        findGaulTowersWithWallInFront(board));
+  }
+
+  /**
+   * Count the towers with an own wall two squares in front of them, but not directly in front,
+   * reusing the towers with a wall directly in front, that the rating function has found already.
+   */
+  private static int countTowersWithWallTwoInFront(Board board, long romanWallInFront,
+      long gaulWallInFront) {
+    long romanWallTwoInFront = board.romanTowers & ~romanWallInFront & (board.romanWalls >>> 2)
+        & ~(RANK_SIX | RANK_SEVEN);
+    long gaulWallTwoInFront = board.gaulTowers & ~gaulWallInFront & (board.gaulWalls << 2)
+        & ~(RANK_ONE | RANK_TWO);
+    return Long.bitCount(romanWallTwoInFront) - Long.bitCount(gaulWallTwoInFront);
+  }
+
+  /**
+   * Count the walls without any adjacent piece. The squares adjacent to any piece are found by
+   * shifting the occupied bitboard in all eight directions.
+   * @param board The present board
+   * @return The number of such roman walls minus the number of such gaul walls
+   */
+  static int countIsolatedWalls(Board board) {
+    long adjacentToPieces = 0;
+    for (int direction = 0; direction < 8; direction++) {
+      adjacentToPieces |= MoveTables.shift(board.occupied, direction);
     }
 
-    if (piece == Piece.RomanWall && behind == Piece.RomanCatapult
-        || piece == Piece.GaulWall && behind == Piece.GaulCatapult)
-      extraRating += 30;
-    return extraRating;
+    return Long.bitCount(board.romanWalls & ~adjacentToPieces)
+        - Long.bitCount(board.gaulWalls & ~adjacentToPieces);
+  }
+
+  /**
+   * Count the walls with an own catapult three squares behind them.
+   * @param board The present board
+   * @return The number of such roman walls minus the number of such gaul walls
+   */
+  static int countWallsWithCatapultBehind(Board board) {
+    long romanCatapultBehind = board.romanWalls & (board.romanCatapults << 3)
+        & ~(RANK_ONE | RANK_TWO | RANK_THREE);
+    long gaulCatapultBehind = board.gaulWalls & (board.gaulCatapults >>> 3)
+        & ~(RANK_FIVE | RANK_SIX | RANK_SEVEN);
+    return Long.bitCount(romanCatapultBehind) - Long.bitCount(gaulCatapultBehind);
   }
 }
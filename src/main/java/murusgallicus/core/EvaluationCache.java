@@ -0,0 +1,172 @@
+package murusgallicus.core;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size cache for the rating function, keyed by the Zobrist key of the board. The entries
+ * live in a single power-of-two long array, so the cache never grows and never allocates after
+ * construction. Every entry stores the key XORed with the data and the data itself, so a torn
+ * entry, written concurrently by two threads, fails the key check and is treated as a miss. That
+ * makes the cache safe to share between search threads without any locking.
+ */
+public final class EvaluationCache {
+
+  /**
+   * The way a new entry is stored in an occupied slot.
+   */
+  public enum ReplacementPolicy {
+    /**
+     * Always overwrite the slot.
+     */
+    ALWAYS,
+
+    /**
+     * Only overwrite the slot, if it is empty or was stored before the last call of
+     * {@link #newSearch()}, so that the ratings of the running search are kept.
+     */
+    AGE
+  }
+
+  /**
+   * The default size of the cache in MB.
+   */
+  public static final int DEFAULT_SIZE_IN_MB = 16;
+
+  /**
+   * The number of longs per entry: the checked key and the data.
+   */
+  private static final int ENTRY_SIZE = 2;
+
+  /**
+   * The bit that marks a slot as used, so that an empty slot never matches the key 0.
+   */
+  private static final long VALID_BIT = 1L << 63;
+
+  private final long[] entries;
+  private final int mask;
+  private final ReplacementPolicy policy;
+
+  /**
+   * The generation of the entries that are stored now, which is kept in bits 32 to 39 of the data.
+   */
+  private int generation;
+
+  /**
+   * The statistics of the cache. They are not synchronized, so they are only approximate, when the
+   * cache is shared between threads.
+   */
+  private long hits;
+  private long misses;
+
+  /**
+   * Create a cache.
+   * @param sizeInMB The size of the cache in MB, which is rounded down to a power of two entries
+   * @param policy The replacement policy
+   */
+  public EvaluationCache(int sizeInMB, ReplacementPolicy policy) {
+    if (sizeInMB <= 0) throw new IllegalArgumentException("Invalid cache size: " + sizeInMB);
+    long requestedEntries = sizeInMB * 1024L * 1024L / (8 * ENTRY_SIZE);
+    int numberOfEntries =
+        Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE / ENTRY_SIZE, requestedEntries));
+    this.entries = new long[numberOfEntries * ENTRY_SIZE];
+    this.mask = numberOfEntries - 1;
+    this.policy = policy;
+  }
+
+  /**
+   * Look up the rating of a position.
+   * @param key The Zobrist key of the position
+   * @param defaultValue The value to return on a miss
+   * @return The cached rating, or the default value, if the position is not in the cache
+   */
+  public int get(long key, int defaultValue) {
+    int index = ((int) key & mask) * ENTRY_SIZE;
+    long data = entries[index + 1];
+    if ((entries[index] ^ data) == key && data != 0) {
+      hits++;
+      return (int) data;
+    }
+    misses++;
+    return defaultValue;
+  }
+
+  /**
+   * Check, if a position is in the cache, without changing the statistics.
+   * @param key The Zobrist key of the position
+   * @return true, if the rating of the position is cached, false otherwise
+   */
+  public boolean contains(long key) {
+    int index = ((int) key & mask) * ENTRY_SIZE;
+    long data = entries[index + 1];
+    return (entries[index] ^ data) == key && data != 0;
+  }
+
+  /**
+   * Store the rating of a position according to the replacement policy.
+   * @param key The Zobrist key of the position
+   * @param rating The rating of the position
+   */
+  public void put(long key, int rating) {
+    int index = ((int) key & mask) * ENTRY_SIZE;
+    if (policy == ReplacementPolicy.AGE) {
+      long stored = entries[index + 1];
+      if (stored != 0 && (int) (stored >>> 32 & 0xFF) == generation) return;
+    }
+    long data = VALID_BIT | ((long) generation << 32) | (rating & 0xFFFFFFFFL);
+    entries[index] = key ^ data;
+    entries[index + 1] = data;
+  }
+
+  /**
+   * Mark the start of a new search, so that with the age policy the entries of earlier searches
+   * may be replaced.
+   */
+  public void newSearch() {
+    generation = (generation + 1) & 0xFF;
+  }
+
+  /**
+   * Remove all the entries and reset the statistics.
+   */
+  public void clear() {
+    Arrays.fill(entries, 0);
+    generation = 0;
+    resetStatistics();
+  }
+
+  /**
+   * Reset the hit and miss counters.
+   */
+  public void resetStatistics() {
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+   * Getter for the number of lookups, that found the position.
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Getter for the number of lookups, that did not find the position.
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Getter for the number of entries of the cache.
+   */
+  public int getNumberOfEntries() {
+    return mask + 1;
+  }
+
+  @Override
+  public String toString() {
+    long lookups = hits + misses;
+    return "Evaluation cache: " + getNumberOfEntries() + " entries, " + hits + " hits, "
+        + misses + " misses" + ((lookups > 0) ? ", hit rate " + (100 * hits / lookups) + "%" : "");
+  }
+}
@@ -0,0 +1,150 @@
+package murusgallicus.core;
+
+import java.util.Arrays;
+
+/**
+ * The trace mode of the rating function. If the JVM is started with -Dmurusgallicus.evaltrace=true,
+ * every call of the rating function records the contribution and the cost in nanoseconds of every
+ * term, and the records are aggregated into histograms, which the search prints with its summary.
+ * The flag is a static final constant, so if the mode is off, the JIT compiler removes the traced
+ * code from the rating function entirely. The aggregates are not synchronized, the mode is meant
+ * for profiling a single search thread.
+ */
+public final class EvaluationTrace {
+
+  /**
+   * Whether the trace mode is on.
+   */
+  public static final boolean ENABLED = Boolean.getBoolean("murusgallicus.evaltrace");
+
+  /**
+   * The terms of the rating function. The contributions are from the view of the romans.
+   */
+  public enum Term {
+    MATE_DETECTION,
+    PIECE_SQUARE_WALLS,
+    PIECE_SQUARE_TOWERS,
+    PIECE_SQUARE_CATAPULTS,
+    TOWER_NEIGHBOURHOOD,
+    WALL_OCCUPIED_ADJACENCY,
+    WALL_EMPTY_ADJACENCY;
+
+    static final Term[] VALUES = values();
+  }
+
+  /**
+   * The number of buckets of the histograms. The contributions are bucketed by sign and by the
+   * power of two of their absolute value, the costs by the power of two of the nanoseconds.
+   */
+  private static final int BUCKETS = 32;
+  private static final int ZERO_BUCKET = BUCKETS / 2;
+
+  private static final int NUMBER_OF_TERMS = Term.VALUES.length;
+
+  private static long calls;
+  private static final long[] contributionSums = new long[NUMBER_OF_TERMS];
+  private static final long[] absoluteContributionSums = new long[NUMBER_OF_TERMS];
+  private static final long[] nanoSums = new long[NUMBER_OF_TERMS];
+  private static final long[][] contributionHistograms = new long[NUMBER_OF_TERMS][BUCKETS];
+  private static final long[][] nanoHistograms = new long[NUMBER_OF_TERMS][BUCKETS];
+
+  private EvaluationTrace() {}
+
+  /**
+   * Count a call of the rating function.
+   */
+  static void recordCall() {
+    calls++;
+  }
+
+  /**
+   * Record the contribution and the cost of a term in one call of the rating function.
+   * @param term The term
+   * @param contribution The rating the term added, from the view of the romans
+   * @param nanoseconds The time it took to compute the term
+   */
+  static void record(Term term, int contribution, long nanoseconds) {
+    int t = term.ordinal();
+    contributionSums[t] += contribution;
+    absoluteContributionSums[t] += Math.abs(contribution);
+    nanoSums[t] += nanoseconds;
+    contributionHistograms[t][contributionBucket(contribution)]++;
+    nanoHistograms[t][Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanoseconds))]++;
+  }
+
+  private static int contributionBucket(int contribution) {
+    if (contribution == 0) return ZERO_BUCKET;
+    int bits = 32 - Integer.numberOfLeadingZeros(Math.abs(contribution));
+    int magnitude = Math.min(ZERO_BUCKET - 1, bits);
+    return (contribution > 0) ? ZERO_BUCKET + magnitude : ZERO_BUCKET - magnitude;
+  }
+
+  /**
+   * Clear all the records, e.g. before a new search.
+   */
+  public static void reset() {
+    calls = 0;
+    for (int t = 0; t < NUMBER_OF_TERMS; t++) {
+      contributionSums[t] = absoluteContributionSums[t] = nanoSums[t] = 0;
+      Arrays.fill(contributionHistograms[t], 0);
+      Arrays.fill(nanoHistograms[t], 0);
+    }
+  }
+
+  /**
+   * Getter for the number of traced calls of the rating function.
+   */
+  public static long getCalls() {
+    return calls;
+  }
+
+  /**
+   * Getter for the sum of the contributions of a term over all the traced calls.
+   */
+  public static long getContributionSum(Term term) {
+    return contributionSums[term.ordinal()];
+  }
+
+  /**
+   * Getter for the time spent on a term over all the traced calls.
+   */
+  public static long getNanoseconds(Term term) {
+    return nanoSums[term.ordinal()];
+  }
+
+  /**
+   * Format the aggregated records: for every term the mean contribution, the mean absolute
+   * contribution and the mean cost, followed by the non-empty buckets of both histograms.
+   * @return The summary, one block per term
+   */
+  public static String summary() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Evaluation trace: ").append(calls).append(" calls\n");
+    if (calls == 0) return builder.toString();
+    for (Term term: Term.VALUES) {
+      int t = term.ordinal();
+      builder.append(String.format("  %-24s mean %8.1f  mean |x| %8.1f  mean ns %7.1f%n",
+          term, (double) contributionSums[t] / calls,
+          (double) absoluteContributionSums[t] / calls, (double) nanoSums[t] / calls));
+      builder.append("    contribution:");
+      for (int b = 0; b < BUCKETS; b++) {
+        if (contributionHistograms[t][b] == 0) continue;
+        builder.append(' ').append(contributionBucketLabel(b)).append('=')
+            .append(contributionHistograms[t][b]);
+      }
+      builder.append("\n    ns:");
+      for (int b = 0; b < BUCKETS; b++) {
+        if (nanoHistograms[t][b] == 0) continue;
+        builder.append(" <").append(1L << b).append('=').append(nanoHistograms[t][b]);
+      }
+      builder.append('\n');
+    }
+    return builder.toString();
+  }
+
+  private static String contributionBucketLabel(int bucket) {
+    if (bucket == ZERO_BUCKET) return "0";
+    int magnitude = Math.abs(bucket - ZERO_BUCKET);
+    return ((bucket > ZERO_BUCKET) ? "+" : "-") + "<" + (1L << magnitude);
+  }
+}
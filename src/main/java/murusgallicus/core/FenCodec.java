@@ -0,0 +1,197 @@
+package murusgallicus.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The FEN parser and serializer of the board. It reads straight from a CharSequence or from the
+ * bytes of a file into the bitboards and writes into a caller-supplied StringBuilder or byte
+ * array, so that no strings, arrays or boxed characters get allocated for a single position.
+ */
+public final class FenCodec {
+
+  /**
+   * The maximal length of a FEN string of this game: 56 pieces, 6 slashes, a space and the player.
+   */
+  public static final int MAX_FEN_LENGTH = 64;
+
+  /**
+   * The piece for every FEN character, or null, if the character is not a piece.
+   */
+  private static final Board.Piece[] PIECES_BY_FEN_CHAR = new Board.Piece[128];
+
+  static {
+    for (Board.Piece piece: Board.Piece.VALUES) PIECES_BY_FEN_CHAR[piece.fenChar] = piece;
+  }
+
+  private FenCodec() {}
+
+  /**
+   * Set a board to the position of a FEN string.
+   * @param fen The FEN string, e.g. "tttttttt/8/8/8/8/8/TTTTTTTT r"
+   * @param board The board to overwrite
+   */
+  public static void parse(CharSequence fen, Board board) {
+    parse(fen, null, 0, fen.length(), board);
+  }
+
+  /**
+   * Set a board to the position of a FEN string given as ASCII bytes. Anything after the player to
+   * move (e.g. the labels in a csv file) is ignored.
+   * @param buffer The buffer that contains the FEN string
+   * @param offset The index of the first character of the FEN string
+   * @param length The number of bytes, that may be read
+   * @param board The board to overwrite
+   */
+  public static void parse(byte[] buffer, int offset, int length, Board board) {
+    parse(null, buffer, offset, offset + length, board);
+  }
+
+  /**
+   * The parser for both kinds of input. Exactly one of chars and bytes must not be null.
+   */
+  private static void parse(CharSequence chars, byte[] bytes, int start, int end, Board board) {
+    long gaulWalls = 0, gaulTowers = 0, gaulCatapults = 0;
+    long romanWalls = 0, romanTowers = 0, romanCatapults = 0;
+    int file = 0;
+    int rank = 6;
+    int i = start;
+    for (; i < end; i++) {
+      char c = (chars != null) ? chars.charAt(i) : (char) bytes[i];
+      if (c == ' ') break;
+      if (c == '/') {
+        file = 0;
+        rank--;
+      } else if (c >= '1' && c <= '8') {
+        file += c - '0';
+      } else {
+        Board.Piece piece = (c < 128) ? PIECES_BY_FEN_CHAR[c] : null;
+        if (piece == null || file > 7 || rank < 0)
+          throw new IllegalArgumentException("Invalid FEN character at index " + (i - start));
+        long mask = 1L << (file++ * 7 + rank);
+        switch (piece) {
+          case GaulWall: gaulWalls |= mask; break;
+          case GaulTower: gaulTowers |= mask; break;
+          case GaulCatapult: gaulCatapults |= mask; break;
+          case RomanWall: romanWalls |= mask; break;
+          case RomanTower: romanTowers |= mask; break;
+          case RomanCatapult: romanCatapults |= mask; break;
+        }
+      }
+    }
+    if (i + 1 >= end)
+      throw new IllegalArgumentException("FEN string does not contain the player to move");
+    char player = (chars != null) ? chars.charAt(i + 1) : (char) bytes[i + 1];
+    if (player != 'r' && player != 'g')
+      throw new IllegalArgumentException("Invalid player to move: " + player);
+
+    board.gaulWalls = gaulWalls;
+    board.gaulTowers = gaulTowers;
+    board.gaulCatapults = gaulCatapults;
+    board.romanWalls = romanWalls;
+    board.romanTowers = romanTowers;
+    board.romanCatapults = romanCatapults;
+    board.playerToMove = player;
+    board.resetDerivedState();
+  }
+
+  /**
+   * Append the FEN string of a board to a StringBuilder.
+   * @param board The board to serialize
+   * @param builder The builder to append to
+   * @return The builder
+   */
+  public static StringBuilder write(Board board, StringBuilder builder) {
+    for (int rank = 6; rank >= 0; rank--) {
+      int empty = 0;
+      for (int file = 0; file < 8; file++) {
+        int code = board.mailbox[file * 7 + rank];
+        if (code == 0) {
+          empty++;
+        } else {
+          if (empty > 0) builder.append((char) ('0' + empty));
+          empty = 0;
+          builder.append(Board.Piece.VALUES[code - 1].fenChar);
+        }
+      }
+      if (empty > 0) builder.append((char) ('0' + empty));
+      if (rank > 0) builder.append('/');
+    }
+    return builder.append(' ').append(board.playerToMove);
+  }
+
+  /**
+   * Write the FEN string of a board as ASCII bytes.
+   * @param board The board to serialize
+   * @param buffer The buffer to write to, with at least {@link #MAX_FEN_LENGTH} bytes left
+   * @param offset The index of the first byte to write
+   * @return The index after the last byte written
+   */
+  public static int write(Board board, byte[] buffer, int offset) {
+    for (int rank = 6; rank >= 0; rank--) {
+      int empty = 0;
+      for (int file = 0; file < 8; file++) {
+        int code = board.mailbox[file * 7 + rank];
+        if (code == 0) {
+          empty++;
+        } else {
+          if (empty > 0) buffer[offset++] = (byte) ('0' + empty);
+          empty = 0;
+          buffer[offset++] = (byte) Board.Piece.VALUES[code - 1].fenChar;
+        }
+      }
+      if (empty > 0) buffer[offset++] = (byte) ('0' + empty);
+      if (rank > 0) buffer[offset++] = '/';
+    }
+    buffer[offset++] = ' ';
+    buffer[offset++] = (byte) board.playerToMove;
+    return offset;
+  }
+
+  /**
+   * Load all the positions of a file with one FEN string per line, like scripts/positions.txt or
+   * scripts/data/data.csv, into a packed long array (see {@link Position#writeTo(long[], int)}).
+   * Lines without a space, like the header of the csv file, and empty lines are skipped.
+   * @param file The file to load
+   * @return The packed positions, {@link Position#PACKED_SIZE} longs per position
+   * @throws IOException If the file cannot be read
+   */
+  public static long[] loadPositions(Path file) throws IOException {
+    return parsePositions(Files.readAllBytes(file));
+  }
+
+  /**
+   * Parse all the positions of the bytes of a file with one FEN string per line.
+   * @param data The content of the file
+   * @return The packed positions, {@link Position#PACKED_SIZE} longs per position
+   */
+  public static long[] parsePositions(byte[] data) {
+    Board board = new Board("8/8/8/8/8/8/8 r");
+    Position position = new Position();
+    long[] positions = new long[64 * Position.PACKED_SIZE];
+    int numberOfPositions = 0;
+
+    int lineStart = 0;
+    while (lineStart < data.length) {
+      int lineEnd = lineStart;
+      boolean hasSpace = false;
+      while (lineEnd < data.length && data[lineEnd] != '\n') {
+        if (data[lineEnd] == ' ') hasSpace = true;
+        lineEnd++;
+      }
+
+      if (hasSpace) {
+        parse(data, lineStart, lineEnd - lineStart, board);
+        board.snapshot(position);
+        if ((numberOfPositions + 1) * Position.PACKED_SIZE > positions.length)
+          positions = Arrays.copyOf(positions, 2 * positions.length);
+        position.writeTo(positions, numberOfPositions++ * Position.PACKED_SIZE);
+      }
+      lineStart = lineEnd + 1;
+    }
+
+    return Arrays.copyOf(positions, numberOfPositions * Position.PACKED_SIZE);
+  }
+}
@@ -1,67 +1,125 @@
 package murusgallicus.core;
 
-import murusgallicus.core.Board.Square;
+import murusgallicus.core.Board.Piece;
 
 /**
- * A class to represent the moves
+ * A class to represent the moves. The search works with moves encoded as integers, which are
+ * created and decoded by the static methods of this class:
+ * <pre>
+ *   bits  0-5   source square (shift width)
+ *   bits  6-11  destination square (shift width)
+ *   bits 12-13  number of pieces moved (0 if not specified, 1 or 2)
+ *   bits 14-16  captured piece (0 if none, ordinal + 1 otherwise)
+ *   bits 17-19  moving piece (ordinal + 1)
+ * </pre>
  */
 public class Move {
 
   /**
-   * The source square of the moving piece
+   * The integer encoding that represents no move at all.
    */
-  private Square sourceSquare;
+  public static final int NONE = 0;
+
+  private static final int SQUARE_MASK = 0x3F;
+  private static final int DESTINATION_SHIFT = 6;
+  private static final int PIECES_MOVED_SHIFT = 12;
+  private static final int CAPTURED_PIECE_SHIFT = 14;
+  private static final int MOVING_PIECE_SHIFT = 17;
+
+  private Move() {}
 
   /**
-   * The destination square of the moving piece
+   * Create the integer encoding of a move.
+   * @param sourceSquare The shift width of the source square
+   * @param destinationSquare The shift width of the destination square
+   * @param numberOfPiecesMoved The number of pieces moved, -1 if it does not need to be specified
+   * @param movingPiece The piece that makes the move
+   * @param capturedPiece The enemy piece at the destination square, or null
+   * @return The integer encoding of the move
    */
-  private Square destinationSquare;
+  static int encode(int sourceSquare, int destinationSquare, int numberOfPiecesMoved,
+      Piece movingPiece, Piece capturedPiece) {
+    return sourceSquare
+        | destinationSquare << DESTINATION_SHIFT
+        | Math.max(numberOfPiecesMoved, 0) << PIECES_MOVED_SHIFT
+        | ((capturedPiece == null) ? 0 : capturedPiece.ordinal() + 1) << CAPTURED_PIECE_SHIFT
+        | (movingPiece.ordinal() + 1) << MOVING_PIECE_SHIFT;
+  }
 
   /**
-   * The number of pieces moved
+   * Getter for the source square of an integer encoded move.
+   * @param move The integer encoding of the move
+   * @return The shift width of the source square
    */
-  private int numberOfPiecesMoved;
+  public static int getSourceSquare(int move) {
+    return move & SQUARE_MASK;
+  }
 
   /**
-   * A constructor that sets all of the instance variables to the passed values.s
+   * Getter for the destination square of an integer encoded move.
+   * @param move The integer encoding of the move
+   * @return The shift width of the destination square
    */
-  public Move(Square sourceSquare, Square destinationSquare, int numberOfPiecesMoved) {
-    this.sourceSquare = sourceSquare;
-    this.destinationSquare = destinationSquare;
-    this.numberOfPiecesMoved = numberOfPiecesMoved;
+  public static int getDestinationSquare(int move) {
+    return (move >>> DESTINATION_SHIFT) & SQUARE_MASK;
+  }
+
+  static int getNumberOfPiecesMoved(int move) {
+    int numberOfPiecesMoved = (move >>> PIECES_MOVED_SHIFT) & 0x3;
+    return (numberOfPiecesMoved == 0) ? -1 : numberOfPiecesMoved;
+  }
+
+  static Piece getCapturedPiece(int move) {
+    int code = (move >>> CAPTURED_PIECE_SHIFT) & 0x7;
+    return (code == 0) ? null : Piece.VALUES[code - 1];
+  }
+
+  static Piece getMovingPiece(int move) {
+    return Piece.VALUES[((move >>> MOVING_PIECE_SHIFT) & 0x7) - 1];
   }
 
   /**
-   * Getter for the source square.
-   * @return The source square
+   * Check whether a move attacks an enemy piece.
+   * @param move The integer encoding of the move
+   * @return true, if there is an enemy piece on the destination square, false otherwise
    */
-  Square getSourceSquare() {
-    return sourceSquare;
+  public static boolean isCapture(int move) {
+    return ((move >>> CAPTURED_PIECE_SHIFT) & 0x7) != 0;
   }
 
   /**
-   * Getter for the destination square.
-   * @return The destination square
+   * Getter for the value of the enemy piece, that a move attacks.
+   * @param move The integer encoding of the move
+   * @return The piece value of the attacked piece, or 0, if the destination square is empty
    */
-  Square getDestinationSquare() {
-    return destinationSquare;
+  public static int getCapturedValue(int move) {
+    Piece capturedPiece = getCapturedPiece(move);
+    return (capturedPiece == null) ? 0 : capturedPiece.pieceValue;
   }
 
   /**
-   * Getter for the number of moved pieces.
-   * @return The number of moved pieces
+   * Getter for the value of the piece, that makes a move.
+   * @param move The integer encoding of the move
+   * @return The piece value of the moving piece
    */
-  int getNumberOfPiecesMoved() {
-    return numberOfPiecesMoved;
+  public static int getMovingValue(int move) {
+    return getMovingPiece(move).pieceValue;
   }
 
   /**
-   * The move to string converter that adheres to all the rules defined on GitLab.
+   * The string converter for integer encoded moves, that adheres to all the rules defined on GitLab.
+   * @param move The integer encoding of the move
    * @return The string representation of the move
    */
-  @Override
-  public String toString() {
-    if (numberOfPiecesMoved == -1) return this.sourceSquare + "-" + this.destinationSquare;
-    else return this.sourceSquare + "-" + this.destinationSquare + "-" + this.numberOfPiecesMoved;
+  public static String toString(int move) {
+    int sourceSquare = getSourceSquare(move);
+    int destinationSquare = getDestinationSquare(move);
+    int numberOfPiecesMoved = getNumberOfPiecesMoved(move);
+    StringBuilder builder = new StringBuilder(7)
+        .append((char) ('a' + sourceSquare / 7)).append((char) ('1' + sourceSquare % 7))
+        .append('-')
+        .append((char) ('a' + destinationSquare / 7)).append((char) ('1' + destinationSquare % 7));
+    if (numberOfPiecesMoved != -1) builder.append('-').append(numberOfPiecesMoved);
+    return builder.toString();
   }
 }
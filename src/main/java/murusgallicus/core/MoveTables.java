@@ -0,0 +1,121 @@
+package murusgallicus.core;
+
+/**
+ * Precomputed target squares for the move generator. For every square (indexed by its shift width)
+ * there is a bitboard with all the squares that a piece on it can reach, so that the move generator
+ * does not need to check the edges of the board.
+ */
+final class MoveTables {
+
+  /**
+   * The file and rank steps of the eight directions a tower can move to.
+   */
+  private static final int[][] TOWER_DIRECTIONS = {
+      {-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1}
+  };
+
+  /**
+   * The file and rank steps of the directions a roman catapult can throw to. Gaul catapults throw
+   * in the same directions with the rank step negated.
+   */
+  private static final int[][] CATAPULT_DIRECTIONS = {
+      {-1, 0}, {1, 0}, {0, 1}, {-1, 1}, {1, 1}
+  };
+
+  /**
+   * The shift width offsets of the eight directions, in the same order as the tower directions.
+   */
+  static final int[] DIRECTION_OFFSETS = {-8, -7, -6, -1, 1, 6, 7, 8};
+
+  /**
+   * For every direction the squares, from which a piece can move one step in that direction
+   * without leaving the board or wrapping around to the next file.
+   */
+  private static final long[] DIRECTION_SOURCE_MASKS = new long[8];
+
+  /**
+   * The indexes of the directions a roman catapult can throw to.
+   */
+  static final int[] ROMAN_CATAPULT_DIRECTIONS = {1, 6, 4, 2, 7};
+
+  /**
+   * The indexes of the directions a gaul catapult can throw to.
+   */
+  static final int[] GAUL_CATAPULT_DIRECTIONS = {1, 6, 3, 0, 5};
+
+  /**
+   * A bitboard with all the squares of the board.
+   */
+  static final long BOARD = (1L << 56) - 1;
+
+  /**
+   * The squares adjacent to each square, where a tower can attack or place its first stone.
+   */
+  static final long[] TOWER_STEP_TARGETS = new long[56];
+
+  /**
+   * The squares at distance two in a straight line from each square, where a tower can move to.
+   * The intervening square is always at shift width (source + destination) / 2.
+   */
+  static final long[] TOWER_TWO_STEP_TARGETS = new long[56];
+
+  /**
+   * The squares a roman catapult on each square can throw a stone to.
+   */
+  static final long[] ROMAN_CATAPULT_TARGETS = new long[56];
+
+  /**
+   * The squares a gaul catapult on each square can throw a stone to.
+   */
+  static final long[] GAUL_CATAPULT_TARGETS = new long[56];
+
+  static {
+    for (int direction = 0; direction < 8; direction++) {
+      DIRECTION_SOURCE_MASKS[direction] = BOARD;
+      if (TOWER_DIRECTIONS[direction][1] == -1)
+        DIRECTION_SOURCE_MASKS[direction] &= ~Board.Rank.FIRST.bitboardMask();
+      else if (TOWER_DIRECTIONS[direction][1] == 1)
+        DIRECTION_SOURCE_MASKS[direction] &= ~Board.Rank.SEVENTH.bitboardMask();
+    }
+
+    for (int square = 0; square < 56; square++) {
+      int file = square / 7;
+      int rank = square % 7;
+      for (int[] direction: TOWER_DIRECTIONS) {
+        TOWER_STEP_TARGETS[square] |= mask(file + direction[0], rank + direction[1]);
+        TOWER_TWO_STEP_TARGETS[square] |= mask(file + 2 * direction[0], rank + 2 * direction[1]);
+      }
+      for (int[] direction: CATAPULT_DIRECTIONS) {
+        for (int distance = 2; distance <= 3; distance++) {
+          ROMAN_CATAPULT_TARGETS[square] |=
+              mask(file + distance * direction[0], rank + distance * direction[1]);
+          GAUL_CATAPULT_TARGETS[square] |=
+              mask(file + distance * direction[0], rank - distance * direction[1]);
+        }
+      }
+    }
+  }
+
+  private MoveTables() {}
+
+  /**
+   * Move all the pieces of a bitboard one step in a direction. Pieces that would leave the board or
+   * wrap around to the next file are dropped.
+   * @param bitboard The bitboard to shift
+   * @param direction The index of the direction
+   * @return The shifted bitboard
+   */
+  static long shift(long bitboard, int direction) {
+    long sources = bitboard & DIRECTION_SOURCE_MASKS[direction];
+    int offset = DIRECTION_OFFSETS[direction];
+    return ((offset > 0) ? sources << offset : sources >>> -offset) & BOARD;
+  }
+
+  /**
+   * Get the bitboard mask of a square, or 0, if the square is not on the board.
+   */
+  private static long mask(int file, int rank) {
+    if (file < 0 || file > 7 || rank < 0 || rank > 6) return 0;
+    return 1L << (file * 7 + rank);
+  }
+}
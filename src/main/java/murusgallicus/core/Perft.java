@@ -0,0 +1,201 @@
+package murusgallicus.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The perft tool, that counts the leaf nodes of the game tree in order to verify the move generator
+ * against known node counts and to measure its speed on its own. The root moves are split across a
+ * ForkJoinPool and the subtrees can optionally be cached by their Zobrist key. The tool owns its
+ * pool, so it has to be closed after use.
+ */
+public class Perft implements AutoCloseable {
+
+  /**
+   * The number of longs per cache entry: the checked key and the number of nodes.
+   */
+  private static final int CACHE_ENTRY_SIZE = 2;
+
+  /**
+   * The bit that marks a cache entry as used, so that an empty entry never matches the key 0.
+   */
+  private static final long VALID_BIT = 1L << 63;
+
+  /**
+   * The pool that the root moves are searched in.
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * The perft cache, or null if it is disabled. Every entry stores the key XORed with the data and
+   * the data, i.e. the valid bit and the number of nodes, so that entries torn by concurrent writes
+   * are not used.
+   */
+  private final long[] cache;
+
+  /**
+   * The mask to get the index of an entry from a key.
+   */
+  private final int cacheMask;
+
+  /**
+   * Create a perft tool.
+   * @param threads The number of threads the root moves are split across
+   * @param cacheSizeInMB The size of the perft cache in MB, 0 to disable it
+   */
+  public Perft(int threads, int cacheSizeInMB) {
+    pool = new ForkJoinPool(threads);
+    if (cacheSizeInMB > 0) {
+      int entries = Integer.highestOneBit(cacheSizeInMB * 1024 * 1024 / (8 * CACHE_ENTRY_SIZE));
+      cache = new long[entries * CACHE_ENTRY_SIZE];
+      cacheMask = entries - 1;
+    } else {
+      cache = null;
+      cacheMask = 0;
+    }
+  }
+
+  /**
+   * Count the leaf nodes of the game tree, splitting the root moves across the pool.
+   * @param board The root position
+   * @param depth The depth of the game tree
+   * @return The number of leaf nodes
+   */
+  public long perft(Board board, int depth) {
+    long nodes = 0;
+    for (long subtreeNodes: divide(board, depth).values()) nodes += subtreeNodes;
+    return (depth == 0) ? 1 : nodes;
+  }
+
+  /**
+   * Count the leaf nodes of the subtree of every root move.
+   * @param board The root position
+   * @param depth The depth of the game tree
+   * @return The number of leaf nodes for every root move, in the order they were generated
+   */
+  public Map<String, Long> divide(Board board, int depth) {
+    Map<String, Long> result = new LinkedHashMap<>();
+    if (depth == 0) return result;
+
+    int[] moves = new int[Board.MAX_MOVES];
+    int numberOfMoves = board.generateMoves(moves);
+    List<SubtreeTask> tasks = new ArrayList<>();
+    for (int i = 0; i < numberOfMoves; i++) {
+      tasks.add(new SubtreeTask(board, moves[i], depth - 1));
+    }
+    for (SubtreeTask task: tasks) pool.execute(task);
+    for (SubtreeTask task: tasks) result.put(Move.toString(task.move), task.join());
+    return result;
+  }
+
+  /**
+   * Count the leaf nodes of the game tree, looking up and storing subtrees in the cache.
+   */
+  private long perft(Board board, int depth, int[][] moveBuffers) {
+    if (cache == null || depth <= 2) return board.perft(depth, moveBuffers);
+
+    long key = board.zobrist ^ (depth * 0x9E3779B97F4A7C15L);
+    int index = ((int) key & cacheMask) * CACHE_ENTRY_SIZE;
+    long data = cache[index + 1];
+    if ((cache[index] ^ data) == key && data != 0) return data & ~VALID_BIT;
+
+    int[] moves = moveBuffers[depth - 1];
+    int numberOfMoves = board.generateMoves(moves);
+    long nodes = 0;
+    for (int i = 0; i < numberOfMoves; i++) {
+      board.makeMove(moves[i]);
+      nodes += perft(board, depth - 1, moveBuffers);
+      board.unmakeMove(moves[i]);
+    }
+
+    data = VALID_BIT | nodes;
+    cache[index] = key ^ data;
+    cache[index + 1] = data;
+    return nodes;
+  }
+
+  /**
+   * Shut down the pool of the tool.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * The task that counts the leaf nodes of the subtree of one root move on its own board.
+   */
+  private class SubtreeTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final Position position;
+    private final int move;
+    private final int depth;
+
+    SubtreeTask(Board board, int move, int depth) {
+      this.position = board.snapshot();
+      this.move = move;
+      this.depth = depth;
+    }
+
+    @Override
+    protected Long compute() {
+      Board board = new Board(position);
+      board.makeMove(move);
+      return perft(board, depth, new int[Math.max(depth, 1)][Board.MAX_MOVES]);
+    }
+  }
+
+  /**
+   * Run perft from the command line and report the nodes per second of every run.
+   * Usage: Perft depth (fen | positionsFile) [threads] [cacheSizeInMB]
+   * For a FEN string the node count of every root move is printed, for a file with one FEN per line
+   * the node count of every position is printed as "fen;nodes", so that runs can be diffed.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("Usage: Perft depth (fen | positionsFile) [threads] [cacheSizeInMB]");
+      return;
+    }
+    int depth = Integer.parseInt(args[0]);
+    int threads = (args.length > 2)
+        ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int cacheSizeInMB = (args.length > 3) ? Integer.parseInt(args[3]) : 0;
+    try (Perft perft = new Perft(threads, cacheSizeInMB)) {
+      Path positionsFile = Paths.get(args[1]);
+      if (Files.isRegularFile(positionsFile)) {
+        long totalNodes = 0;
+        long before = System.nanoTime();
+        for (String fen: Files.readAllLines(positionsFile)) {
+          if (fen.trim().isEmpty()) continue;
+          long nodes = perft.perft(new Board(fen.trim()), depth);
+          System.out.println(fen.trim() + ";" + nodes);
+          totalNodes += nodes;
+        }
+        report(totalNodes, System.nanoTime() - before);
+      } else {
+        long totalNodes = 0;
+        long before = System.nanoTime();
+        for (Map.Entry<String, Long> entry: perft.divide(new Board(args[1]), depth).entrySet()) {
+          System.out.println(entry.getKey() + ": " + entry.getValue());
+          totalNodes += entry.getValue();
+        }
+        report(totalNodes, System.nanoTime() - before);
+      }
+    }
+  }
+
+  private static void report(long nodes, long nanoseconds) {
+    System.out.println("Nodes: " + nodes);
+    System.out.println("Time elapsed: " + nanoseconds / 1000000);
+    System.out.println("Nodes per second: " + (long) (nodes / (nanoseconds / 1e9)));
+  }
+}
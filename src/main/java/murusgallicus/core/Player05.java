@@ -13,6 +13,11 @@ public class Player05 implements Player {
    */
   private int numberOfMovesPlayed;
 
+  /**
+   * The board, that gets reused for every move request
+   */
+  private Board board;
+
   /**
    * Make sure that the player can play the game.
    * @param game The game that the player needs to be able to play
@@ -43,6 +48,8 @@ public class Player05 implements Player {
    */
   @Override
   public String requestMove(String representation, int player, long timeLeft, long additionalTime) {
-    return MiniMax.getOptimalMove(new Board(representation), player, timeLeft, numberOfMovesPlayed++);
+    if (board == null) board = new Board(representation);
+    else board.setBoard(representation);
+    return MiniMax.getOptimalMove(board, player, timeLeft, numberOfMovesPlayed++);
   }
 }
@@ -0,0 +1,99 @@
+package murusgallicus.core;
+
+/**
+ * A compact value of a board position: the six piece bitboards and the player to move. It does
+ * not contain the derived bitboards, the Zobrist key or the undo stack of a {@link Board}, so it is
+ * cheap to copy and to store in caches or training buffers.
+ */
+public final class Position {
+
+  /**
+   * The number of longs a position takes in a packed long array. The player to move is stored in
+   * the highest bit of the gaul walls, which is never part of the board.
+   */
+  public static final int PACKED_SIZE = 6;
+
+  private static final long GAULS_TO_MOVE_BIT = 1L << 63;
+
+  long gaulWalls;
+  long gaulTowers;
+  long gaulCatapults;
+  long romanWalls;
+  long romanTowers;
+  long romanCatapults;
+  char playerToMove;
+
+  /**
+   * Copy this position into a board, without allocating anything.
+   * @param board The board that is overwritten with the position
+   */
+  public void copyInto(Board board) {
+    board.setPosition(this);
+  }
+
+  /**
+   * Getter for the player
+   */
+  public char getPlayerToMove() {
+    return playerToMove;
+  }
+
+  /**
+   * Write the position into a packed long array.
+   * @param buffer The array to write to
+   * @param offset The index of the first of the {@link #PACKED_SIZE} longs to write
+   */
+  public void writeTo(long[] buffer, int offset) {
+    buffer[offset] = gaulWalls | ((playerToMove == 'g') ? GAULS_TO_MOVE_BIT : 0);
+    buffer[offset + 1] = gaulTowers;
+    buffer[offset + 2] = gaulCatapults;
+    buffer[offset + 3] = romanWalls;
+    buffer[offset + 4] = romanTowers;
+    buffer[offset + 5] = romanCatapults;
+  }
+
+  /**
+   * Read the position from a packed long array.
+   * @param buffer The array to read from
+   * @param offset The index of the first of the {@link #PACKED_SIZE} longs to read
+   */
+  public void readFrom(long[] buffer, int offset) {
+    gaulWalls = buffer[offset] & ~GAULS_TO_MOVE_BIT;
+    playerToMove = ((buffer[offset] & GAULS_TO_MOVE_BIT) != 0) ? 'g' : 'r';
+    gaulTowers = buffer[offset + 1];
+    gaulCatapults = buffer[offset + 2];
+    romanWalls = buffer[offset + 3];
+    romanTowers = buffer[offset + 4];
+    romanCatapults = buffer[offset + 5];
+  }
+
+  /**
+   * Check equality of all the bitboards and the player to move.
+   * @param other The other position to check equality to
+   * @return true, if equal positions, false otherwise
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Position)) return false;
+    Position position = (Position) other;
+    return gaulWalls == position.gaulWalls
+        && gaulTowers == position.gaulTowers
+        && gaulCatapults == position.gaulCatapults
+        && romanWalls == position.romanWalls
+        && romanTowers == position.romanTowers
+        && romanCatapults == position.romanCatapults
+        && playerToMove == position.playerToMove;
+  }
+
+  @Override
+  public int hashCode() {
+    long hash = gaulWalls;
+    hash = 31 * hash + gaulTowers;
+    hash = 31 * hash + gaulCatapults;
+    hash = 31 * hash + romanWalls;
+    hash = 31 * hash + romanTowers;
+    hash = 31 * hash + romanCatapults;
+    hash = 31 * hash + playerToMove;
+    return (int) (hash ^ (hash >>> 32));
+  }
+}
@@ -0,0 +1,439 @@
+package murusgallicus.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Texel tuner of the rating function. The labelled positions of a file like
+ * scripts/data/data.csv are loaded into packed long arrays, and all the weights of
+ * {@link BoardRating}, the six piece square tables and the neighbourhood weights, are fitted by
+ * minimising the squared error between the game results and the sigmoid of the rating. The rating
+ * is linear in its weights, so the gradient of every position is its feature vector, and the
+ * gradients are summed up in parallel over chunks of positions in a ForkJoinPool.
+ */
+public class Tuner {
+
+  /**
+   * The number of weights: a piece square table of 56 squares for every piece, followed by the
+   * neighbourhood weights.
+   */
+  static final int NUMBER_OF_WEIGHTS = 6 * 56 + 4;
+
+  private static final int TOWER_WALL_IN_FRONT = 6 * 56;
+  private static final int TOWER_WALL_TWO_IN_FRONT = 6 * 56 + 1;
+  private static final int WALL_CATAPULT_BEHIND = 6 * 56 + 2;
+  private static final int ISOLATED_WALL = 6 * 56 + 3;
+
+  /**
+   * The number of positions, whose gradient is computed by a single task.
+   */
+  private static final int CHUNK_SIZE = 4096;
+
+  /**
+   * The names of the piece square tables in BoardRating, indexed by the ordinal of the piece.
+   */
+  private static final String[] TABLE_NAMES = {
+      "gaulWallPieceSquareTable", "gaulTowerPieceSquareTable", "gaulCatapultPieceSquareTable",
+      "romanWallPieceSquareTable", "romanTowerPieceSquareTable", "romanCatapultPieceSquareTable"
+  };
+
+  /**
+   * The positions, {@link Position#PACKED_SIZE} longs per position. The bitboard of a piece is
+   * stored at the ordinal of the piece, the highest bit of the first one is the player to move.
+   */
+  private final long[] positions;
+
+  /**
+   * The counts of the neighbourhood terms for every position, four per position.
+   */
+  private final byte[] terms;
+
+  /**
+   * The result of the game of every position, 1 for a roman win, 0 for a gaul win.
+   */
+  private final float[] results;
+
+  private final int numberOfPositions;
+  private final ForkJoinPool pool;
+
+  /**
+   * The weights, the weights the tuning started with, and whether a weight is tuned at all. The
+   * entries of the piece square tables, that are worth {@link BoardRating#MATE}, stay fixed.
+   */
+  private final double[] weights = new double[NUMBER_OF_WEIGHTS];
+  private final double[] initialWeights = new double[NUMBER_OF_WEIGHTS];
+  private final boolean[] tuned = new boolean[NUMBER_OF_WEIGHTS];
+
+  /**
+   * The scaling constant of the sigmoid, which maps a rating to an expected result.
+   */
+  private double scalingConstant = 0.005;
+
+  /**
+   * The strength of the pull of the weights towards their initial values, which keeps the entries
+   * of rarely seen squares from drifting on small data sets.
+   */
+  private double regularization = 1e-5;
+
+  private Tuner(long[] positions, byte[] terms, float[] results, int numberOfPositions,
+      int threads) {
+    this.positions = positions;
+    this.terms = terms;
+    this.results = results;
+    this.numberOfPositions = numberOfPositions;
+    this.pool = new ForkJoinPool(threads);
+
+    for (Board.Piece piece: Board.Piece.VALUES) {
+      for (int square = 0; square < 56; square++) {
+        int index = piece.ordinal() * 56 + square;
+        weights[index] = BoardRating.getPieceSquareValue(piece, square);
+        tuned[index] = weights[index] != BoardRating.MATE;
+      }
+    }
+    weights[TOWER_WALL_IN_FRONT] = BoardRating.TOWER_WALL_IN_FRONT_BONUS;
+    weights[TOWER_WALL_TWO_IN_FRONT] = BoardRating.TOWER_WALL_TWO_IN_FRONT_BONUS;
+    weights[WALL_CATAPULT_BEHIND] = BoardRating.WALL_CATAPULT_BEHIND_BONUS;
+    weights[ISOLATED_WALL] = BoardRating.ISOLATED_WALL_PENALTY;
+    Arrays.fill(tuned, TOWER_WALL_IN_FRONT, NUMBER_OF_WEIGHTS, true);
+    System.arraycopy(weights, 0, initialWeights, 0, NUMBER_OF_WEIGHTS);
+  }
+
+  /**
+   * Load the labelled positions of a file with lines like "fen;romansWin;gaulsWin". Lines without
+   * a FEN string or a result and positions, that are already decided, are skipped.
+   * @param file The file to load
+   * @param threads The number of threads the gradients are computed with
+   * @return The tuner
+   * @throws IOException If the file cannot be read
+   */
+  public static Tuner load(Path file, int threads) throws IOException {
+    byte[] data = Files.readAllBytes(file);
+    Board board = new Board("8/8/8/8/8/8/8 r");
+    Position position = new Position();
+    long[] positions = new long[1024 * Position.PACKED_SIZE];
+    byte[] terms = new byte[1024 * 4];
+    float[] results = new float[1024];
+    int numberOfPositions = 0;
+
+    int lineStart = 0;
+    while (lineStart < data.length) {
+      int lineEnd = lineStart;
+      int firstSeparator = -1;
+      while (lineEnd < data.length && data[lineEnd] != '\n') {
+        if (data[lineEnd] == ';' && firstSeparator < 0) firstSeparator = lineEnd;
+        lineEnd++;
+      }
+      int next = lineEnd + 1;
+
+      if (firstSeparator < 0 || firstSeparator + 1 >= lineEnd) {
+        lineStart = next;
+        continue;
+      }
+      float result;
+      if (data[firstSeparator + 1] == '1') result = 1;
+      else if (data[firstSeparator + 1] == '0') result = 0;
+      else {
+        lineStart = next;
+        continue;
+      }
+      try {
+        FenCodec.parse(data, lineStart, firstSeparator - lineStart, board);
+      } catch (IllegalArgumentException e) {
+        lineStart = next;
+        continue;
+      }
+      lineStart = next;
+      if (isDecided(board)) continue;
+
+      if (numberOfPositions == results.length) {
+        positions = Arrays.copyOf(positions, 2 * positions.length);
+        terms = Arrays.copyOf(terms, 2 * terms.length);
+        results = Arrays.copyOf(results, 2 * results.length);
+      }
+      board.snapshot(position);
+      position.writeTo(positions, numberOfPositions * Position.PACKED_SIZE);
+      terms[4 * numberOfPositions] = (byte) BoardRating.countTowersWithWallInFront(board);
+      terms[4 * numberOfPositions + 1] = (byte) BoardRating.countTowersWithWallTwoInFront(board);
+      terms[4 * numberOfPositions + 2] = (byte) BoardRating.countWallsWithCatapultBehind(board);
+      terms[4 * numberOfPositions + 3] = (byte) -BoardRating.countIsolatedWalls(board);
+      results[numberOfPositions++] = result;
+    }
+    return new Tuner(positions, terms, results, numberOfPositions, threads);
+  }
+
+  /**
+   * Check, if the rating function returns a mate score for a position.
+   */
+  private static boolean isDecided(Board board) {
+    if (board.romanTowers == 0 || board.gaulTowers == 0) return true;
+    long romanGoal = Board.Rank.SEVENTH.bitboardMask();
+    long gaulGoal = Board.Rank.FIRST.bitboardMask();
+    return (board.romanWalls & romanGoal) != 0 || (board.gaulWalls & gaulGoal) != 0;
+  }
+
+  /**
+   * Getter for the number of positions, that are used for tuning.
+   */
+  public int getNumberOfPositions() {
+    return numberOfPositions;
+  }
+
+  /**
+   * Copy a position of the tuner into a board.
+   * @param index The index of the position
+   * @param board The board to overwrite
+   */
+  void copyPosition(int index, Board board) {
+    Position position = new Position();
+    position.readFrom(positions, index * Position.PACKED_SIZE);
+    position.copyInto(board);
+  }
+
+  /**
+   * Setter for the strength of the pull of the weights towards their initial values.
+   */
+  public void setRegularization(double regularization) {
+    this.regularization = regularization;
+  }
+
+  /**
+   * Rate a position with the current weights, from the view of the romans.
+   * @param index The index of the position
+   * @return The rating
+   */
+  double evaluate(int index) {
+    return evaluate(weights, index);
+  }
+
+  private double evaluate(double[] weights, int index) {
+    int offset = index * Position.PACKED_SIZE;
+    double rating = 0;
+    for (int piece = 0; piece < 6; piece++) {
+      long bitboard = positions[offset + piece] & ~(1L << 63);
+      double sign = (piece >= 3) ? 1 : -1;
+      for (; bitboard != 0; bitboard &= bitboard - 1) {
+        rating += sign * weights[piece * 56 + Long.numberOfTrailingZeros(bitboard)];
+      }
+    }
+    for (int term = 0; term < 4; term++) {
+      rating += terms[4 * index + term] * weights[TOWER_WALL_IN_FRONT + term];
+    }
+    return rating;
+  }
+
+  private double sigmoid(double rating) {
+    return 1 / (1 + Math.exp(-scalingConstant * rating));
+  }
+
+  /**
+   * Compute the mean squared error of the current weights.
+   * @return The error
+   */
+  public double computeError() {
+    return pool.invoke(new GradientTask(0, numberOfPositions, false))[NUMBER_OF_WEIGHTS]
+        / numberOfPositions;
+  }
+
+  /**
+   * Fit the scaling constant of the sigmoid to the current weights by a golden section search on
+   * its logarithm, so that the weights are tuned on the scale of the existing ratings.
+   * @return The scaling constant
+   */
+  public double fitScalingConstant() {
+    double low = Math.log(1e-5);
+    double high = Math.log(1e-1);
+    double ratio = (Math.sqrt(5) - 1) / 2;
+    for (int i = 0; i < 60; i++) {
+      double first = high - ratio * (high - low);
+      double second = low + ratio * (high - low);
+      scalingConstant = Math.exp(first);
+      double firstError = computeError();
+      scalingConstant = Math.exp(second);
+      double secondError = computeError();
+      if (firstError < secondError) high = second;
+      else low = first;
+    }
+    scalingConstant = Math.exp((low + high) / 2);
+    return scalingConstant;
+  }
+
+  /**
+   * Tune the weights with Adam on the full gradient of all the positions.
+   * @param epochs The number of gradient steps
+   * @param learningRate The step size in rating points
+   * @param reportInterval The number of epochs between two lines of progress, 0 for none
+   */
+  public void tune(int epochs, double learningRate, int reportInterval) {
+    double beta1 = 0.9;
+    double beta2 = 0.999;
+    double[] firstMoment = new double[NUMBER_OF_WEIGHTS];
+    double[] secondMoment = new double[NUMBER_OF_WEIGHTS];
+    for (int epoch = 1; epoch <= epochs; epoch++) {
+      double[] gradient = pool.invoke(new GradientTask(0, numberOfPositions, true));
+      for (int i = 0; i < NUMBER_OF_WEIGHTS; i++) {
+        if (!tuned[i]) continue;
+        double g = gradient[i] / numberOfPositions
+            + 2 * regularization * (weights[i] - initialWeights[i]);
+        firstMoment[i] = beta1 * firstMoment[i] + (1 - beta1) * g;
+        secondMoment[i] = beta2 * secondMoment[i] + (1 - beta2) * g * g;
+        double correctedFirst = firstMoment[i] / (1 - Math.pow(beta1, epoch));
+        double correctedSecond = secondMoment[i] / (1 - Math.pow(beta2, epoch));
+        weights[i] -= learningRate * correctedFirst / (Math.sqrt(correctedSecond) + 1e-12);
+      }
+      if (reportInterval > 0 && epoch % reportInterval == 0) {
+        double error = gradient[NUMBER_OF_WEIGHTS] / numberOfPositions;
+        System.out.println("Epoch " + epoch + ": error " + error);
+      }
+    }
+  }
+
+  /**
+   * The task, that sums up the squared errors and, if requested, their gradients of a range of
+   * positions. The last entry of the result is the sum of the squared errors.
+   */
+  private class GradientTask extends RecursiveTask<double[]> {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final boolean withGradient;
+
+    GradientTask(int from, int to, boolean withGradient) {
+      this.from = from;
+      this.to = to;
+      this.withGradient = withGradient;
+    }
+
+    @Override
+    protected double[] compute() {
+      if (to - from > CHUNK_SIZE) {
+        int middle = (from + to) >>> 1;
+        GradientTask right = new GradientTask(middle, to, withGradient);
+        right.fork();
+        double[] sum = new GradientTask(from, middle, withGradient).compute();
+        double[] other = right.join();
+        for (int i = 0; i < sum.length; i++) sum[i] += other[i];
+        return sum;
+      }
+
+      double[] sum = new double[NUMBER_OF_WEIGHTS + 1];
+      for (int index = from; index < to; index++) {
+        double expected = sigmoid(evaluate(weights, index));
+        double error = results[index] - expected;
+        sum[NUMBER_OF_WEIGHTS] += error * error;
+        if (!withGradient) continue;
+
+        // d(error^2)/d(weight) = -2 * error * sigmoid' * feature
+        double factor = -2 * error * expected * (1 - expected) * scalingConstant;
+        int offset = index * Position.PACKED_SIZE;
+        for (int piece = 0; piece < 6; piece++) {
+          long bitboard = positions[offset + piece] & ~(1L << 63);
+          double signedFactor = (piece >= 3) ? factor : -factor;
+          for (; bitboard != 0; bitboard &= bitboard - 1) {
+            sum[piece * 56 + Long.numberOfTrailingZeros(bitboard)] += signedFactor;
+          }
+        }
+        for (int term = 0; term < 4; term++) {
+          sum[TOWER_WALL_IN_FRONT + term] += factor * terms[4 * index + term];
+        }
+      }
+      return sum;
+    }
+  }
+
+  /**
+   * Format the tuned weights as the declarations of BoardRating, rounded to integers, so that they
+   * can be pasted over the hand-set values.
+   * @return The Java source of the tables and the neighbourhood weights
+   */
+  public String formatWeights() {
+    StringBuilder builder = new StringBuilder();
+    int[] order = {3, 4, 5, 0, 1, 2};
+    for (int piece: order) {
+      builder.append("  private static int[] ").append(TABLE_NAMES[piece]).append(" = {\n");
+      for (int file = 0; file < 8; file++) {
+        builder.append("      ");
+        for (int rank = 0; rank < 7; rank++) {
+          int index = piece * 56 + file * 7 + rank;
+          builder.append(tuned[index] ? String.valueOf(Math.round(weights[index])) : "MATE");
+          if (file < 7 || rank < 6) builder.append(rank < 6 ? ", " : ",");
+        }
+        builder.append('\n');
+      }
+      builder.append("  };\n\n");
+    }
+    builder.append("  static final int TOWER_WALL_IN_FRONT_BONUS = ")
+        .append(Math.round(weights[TOWER_WALL_IN_FRONT])).append(";\n");
+    builder.append("  static final int TOWER_WALL_TWO_IN_FRONT_BONUS = ")
+        .append(Math.round(weights[TOWER_WALL_TWO_IN_FRONT])).append(";\n");
+    builder.append("  static final int WALL_CATAPULT_BEHIND_BONUS = ")
+        .append(Math.round(weights[WALL_CATAPULT_BEHIND])).append(";\n");
+    builder.append("  static final int ISOLATED_WALL_PENALTY = ")
+        .append(Math.round(weights[ISOLATED_WALL])).append(";\n");
+    return builder.toString();
+  }
+
+  /**
+   * Measure the bound on the neighbourhood terms for the lazy evaluation: the largest absolute sum
+   * of the terms, that the lazy evaluation skips, over the positions of a file like
+   * scripts/positions.txt, one FEN per line, and all their successors.
+   * @param file The file of the positions
+   * @return The largest swing of the neighbourhood terms
+   * @throws IOException If the file cannot be read
+   */
+  public static int calibrateLazyMargin(Path file) throws IOException {
+    int[] moves = new int[Board.MAX_MOVES];
+    int maximumSwing = 0;
+    for (String line: Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      if (line.isBlank() || line.charAt(0) == '#') continue;
+      Board board = new Board(line.trim());
+      maximumSwing = Math.max(maximumSwing, Math.abs(BoardRating.getNeighbourhoodRating(board)));
+      int numberOfMoves = board.generateMoves(moves);
+      for (int i = 0; i < numberOfMoves; i++) {
+        board.makeMove(moves[i]);
+        maximumSwing =
+            Math.max(maximumSwing, Math.abs(BoardRating.getNeighbourhoodRating(board)));
+        board.unmakeMove(moves[i]);
+      }
+    }
+    return maximumSwing;
+  }
+
+  /**
+   * Tune the rating function, or measure the lazy margin, from the command line.
+   * Usage: Tuner dataFile outputFile [epochs] [threads] [regularization]
+   *        Tuner --calibrate-lazy-margin positionsFile
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 2 && args[0].equals("--calibrate-lazy-margin")) {
+      System.out.println("Maximum swing: " + calibrateLazyMargin(Paths.get(args[1])));
+      return;
+    }
+    if (args.length < 2) {
+      System.out.println("Usage: Tuner dataFile outputFile [epochs] [threads] [regularization]");
+      System.out.println("       Tuner --calibrate-lazy-margin positionsFile");
+      return;
+    }
+    int epochs = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+    int threads = (args.length > 3)
+        ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+    long before = System.nanoTime();
+    Tuner tuner = load(Paths.get(args[0]), threads);
+    if (args.length > 4) tuner.setRegularization(Double.parseDouble(args[4]));
+    System.out.println("Positions: " + tuner.getNumberOfPositions());
+    System.out.println("Scaling constant: " + tuner.fitScalingConstant());
+    System.out.println("Initial error: " + tuner.computeError());
+    tuner.tune(epochs, 1.0, Math.max(1, epochs / 10));
+    System.out.println("Final error: " + tuner.computeError());
+    Files.write(Paths.get(args[1]), tuner.formatWeights().getBytes(StandardCharsets.UTF_8));
+    System.out.println("Time elapsed: " + (System.nanoTime() - before) / 1000000);
+    tuner.pool.shutdown();
+  }
+}
@@ -0,0 +1,42 @@
+package murusgallicus.ai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * A stand-in for "python3 model.py serve", that speaks the same protocol, but scores the positions
+ * with the exported weights, so that the client can be tested without TensorFlow.
+ */
+public class FakeModelServer {
+
+  public static void main(String[] args) throws IOException {
+    NeuralNetwork network = NeuralNetwork.load(Paths.get(args[0]));
+    DataInputStream input = new DataInputStream(new BufferedInputStream(System.in));
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(System.out));
+    int[] first = new int[NeuralNetwork.NUMBER_OF_FEATURES];
+    int[] second = new int[NeuralNetwork.NUMBER_OF_FEATURES];
+    float[] probabilities = new float[2];
+    while (true) {
+      int count;
+      try {
+        count = input.readInt();
+      } catch (EOFException e) {
+        break;
+      }
+      if (count <= 0) break;
+      for (int i = 0; i < count; i++) {
+        for (int f = 0; f < first.length; f++) first[f] = input.readUnsignedByte();
+        for (int f = 0; f < second.length; f++) second[f] = input.readUnsignedByte();
+        network.predict(first, second, probabilities);
+        output.writeFloat(probabilities[0]);
+        output.writeFloat(probabilities[1]);
+      }
+      output.flush();
+    }
+  }
+}
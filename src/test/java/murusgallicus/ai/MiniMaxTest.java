@@ -1,10 +1,13 @@
 package murusgallicus.ai;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.Arrays;
 import murusgallicus.core.Board;
+import murusgallicus.core.Move;
 import murusgallicus.testutils.TestUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
@@ -39,7 +42,7 @@ class MiniMaxTest {
         board.setBoard(fenAndNumber[0]);
         MiniMax.getOptimalMove(board, (board.getPlayerToMove() == 'r') ? 0 : 1, 120000L, 0);
         if (depth <= numberOfNodes.length)
-          assertEquals(Integer.parseInt(numberOfNodes[depth - 1]), MiniMax.nodes,
+          assertEquals(Long.parseLong(numberOfNodes[depth - 1]), MiniMax.getLastResult().nodes,
             "The number of generated nodes is not correct.");
       }
     } catch (IOException e) {
@@ -63,10 +66,58 @@ class MiniMaxTest {
         long after = System.currentTimeMillis();
         System.out.println("Time elapsed: " + (after-before));
         System.out.println("Depth: " + MiniMax.depth);
-        System.out.println("Nodes: " + MiniMax.nodes);
+        System.out.println("Nodes: " + MiniMax.getLastResult().nodes);
       }
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
+
+  @Test
+  void testFindsWinningMove() {
+    board.setBoard("tttttt2/8/7T/8/8/8/TTTTTTT1 r");
+    MiniMax.maxDepth = 3;
+    String move = MiniMax.getOptimalMove(board, 0, 120000L, 0);
+    MiniMax.maxDepth = -1;
+    board.makeMove(board.parseMove(move));
+    assertTrue(board.isGameOver(), "The move " + move + " does not win");
+  }
+
+  @Test
+  void testLazySmpReturnsLegalMove() {
+    board.setBoard("5ww1/2w1wwW1/w1w1wWT1/2wt3W/1wWwwW2/2Tw1WW1/T6T r");
+    MiniMax.setThreads(3);
+    MiniMax.maxDepth = 5;
+    try {
+      String move = MiniMax.getOptimalMove(board, 0, 120000L, 0);
+      assertTrue(Arrays.asList(board.generateMoves()).contains(move));
+      assertEquals(5, MiniMax.depth);
+    } finally {
+      MiniMax.maxDepth = -1;
+      MiniMax.setThreads(1);
+    }
+  }
+
+  @Test
+  void testYoungBrothersWaitMatchesSerialScore() throws IOException {
+    String line;
+    while ((line = reader.readLine()) != null) {
+      Board root = new Board(line.split(";")[0]);
+      MiniMax.getTranspositionTable().clear();
+      int serialScore = MiniMax.search(root, 4, Long.MAX_VALUE).score;
+
+      MiniMax.setThreads(3);
+      MiniMax.setYoungBrothersWait(true);
+      MiniMax.setMinimumSplitDepth(2);
+      try {
+        SearchResult result = MiniMax.search(root, 4, Long.MAX_VALUE);
+        assertEquals(serialScore, result.score, "Score not correct for FEN=" + root);
+        assertTrue(Arrays.asList(root.generateMoves()).contains(Move.toString(result.bestMove)));
+      } finally {
+        MiniMax.setYoungBrothersWait(false);
+        MiniMax.setMinimumSplitDepth(YoungBrothersSearch.DEFAULT_MINIMUM_SPLIT_DEPTH);
+        MiniMax.setThreads(1);
+      }
+    }
+  }
 }
@@ -0,0 +1,49 @@
+package murusgallicus.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import murusgallicus.core.Board;
+import murusgallicus.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+
+class ModelClientTest {
+
+  @Test
+  void testCompareInBatches() throws IOException {
+    NeuralNetwork network = NeuralNetwork.load();
+    int[][] firsts = new int[64][];
+    int[][] seconds = new int[64][];
+    int count = 0;
+    BufferedReader reader = TestUtils.loadTestData("testNeuralNetwork.csv");
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] cols = line.split(";");
+      firsts[count] = new Board(cols[0]).bitify();
+      seconds[count++] = new Board(cols[1]).bitify();
+    }
+
+    boolean[] expected = new boolean[count];
+    network.compare(firsts, seconds, 0, count, expected);
+
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    String weights = Paths.get(NeuralNetwork.DEFAULT_WEIGHTS_FILE).toAbsolutePath().toString();
+    try (ModelClient client = new ModelClient(new File("."), java, "-cp",
+        System.getProperty("java.class.path"), FakeModelServer.class.getName(), weights)) {
+      boolean[] results = new boolean[count];
+      client.compare(firsts, seconds, 0, count, results);
+      for (int i = 0; i < count; i++) assertEquals(expected[i], results[i], "Pair " + i);
+
+      int offset = count / 2;
+      boolean[] secondHalf = new boolean[count];
+      client.compare(firsts, seconds, offset, count - offset, secondHalf);
+      for (int i = offset; i < count; i++) assertEquals(expected[i], secondHalf[i], "Pair " + i);
+
+      assertEquals(2, client.getRoundTrips());
+      assertEquals(count + count - offset, client.getComparisons());
+    }
+  }
+}
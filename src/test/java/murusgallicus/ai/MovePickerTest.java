@@ -0,0 +1,146 @@
+package murusgallicus.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import murusgallicus.core.Board;
+import murusgallicus.core.Move;
+import murusgallicus.testutils.TestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MovePickerTest {
+
+  private Board board;
+  private BufferedReader reader;
+  private MovePicker movePicker;
+
+  @BeforeEach
+  void init() {
+    board = new Board("tttttttt/8/8/8/8/8/TTTTTTTT r");
+    reader = TestUtils.loadTestData("testGenerateMoves.csv");
+    movePicker = new MovePicker();
+  }
+
+  @Test
+  void testPicksAllMovesOnce() {
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+        int[] moves = new int[Board.MAX_MOVES];
+        int numberOfMoves = board.generateMoves(moves);
+        List<Integer> expectedMoves = new ArrayList<>();
+        for (int i = 0; i < numberOfMoves; i++) expectedMoves.add(moves[i]);
+        Collections.sort(expectedMoves);
+
+        int hashMove = (numberOfMoves > 0) ? moves[numberOfMoves - 1] : Move.NONE;
+        movePicker.init(board, hashMove);
+        List<Integer> pickedMoves = new ArrayList<>();
+        int move;
+        while ((move = movePicker.nextMove()) != Move.NONE) pickedMoves.add(move);
+        if (hashMove != Move.NONE)
+          assertEquals(hashMove, (int) pickedMoves.get(0), "Hash move is not picked first");
+        Collections.sort(pickedMoves);
+        assertEquals(expectedMoves, pickedMoves, "Picked moves are not correct for FEN=" + fen);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testIllegalHashMoveIsSkipped() {
+    board.setBoard("tttttttt/8/8/8/8/8/TTTTTTTT r");
+    int gaulMove = new Board("tttttttt/8/8/8/8/8/TTTTTTTT g").parseMove("a7-a5");
+    assertFalse(board.isPseudoLegal(gaulMove));
+    movePicker.init(board, gaulMove);
+    int numberOfPickedMoves = 0;
+    while (movePicker.nextMove() != Move.NONE) numberOfPickedMoves++;
+    assertEquals(board.generateMoves().length, numberOfPickedMoves);
+  }
+
+  @Test
+  void testGeneratedMovesArePseudoLegal() {
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        board.setBoard(line.split(";")[0]);
+        int[] moves = new int[Board.MAX_MOVES];
+        int numberOfMoves = board.generateMoves(moves);
+        for (int move: Arrays.copyOf(moves, numberOfMoves)) {
+          assertTrue(board.isPseudoLegal(move), "Move is not pseudo legal: " + Move.toString(move));
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testCapturesAreSortedByMvvLva() {
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+        movePicker.init(board, Move.NONE);
+        int previousScore = Integer.MAX_VALUE;
+        boolean capturesDone = false;
+        int move;
+        while ((move = movePicker.nextMove()) != Move.NONE) {
+          if (!Move.isCapture(move)) {
+            capturesDone = true;
+            continue;
+          }
+          assertFalse(capturesDone, "Capture after a quiet move for FEN=" + fen);
+          int score = 8 * Move.getCapturedValue(move) - Move.getMovingValue(move);
+          assertTrue(score <= previousScore, "Captures are not sorted for FEN=" + fen);
+          previousScore = score;
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testKillersAndHistoryOrderQuietMoves() {
+    board.setBoard("tttttttt/8/8/8/8/8/TTTTTTTT r");
+    int killer = board.parseMove("c1-c3");
+    int historyMove = board.parseMove("h1-f3");
+    MoveHistory history = new MoveHistory();
+    history.recordCutoff(historyMove, 3, 6);
+    history.recordCutoff(killer, 2, 1);
+    assertEquals(killer, history.getKiller(2, 0));
+    assertEquals(Move.NONE, history.getKiller(2, 1));
+
+    // The killer of the ply comes first, then the quiet moves with the highest history score
+    movePicker.init(board, Move.NONE, history, 2);
+    assertEquals(killer, movePicker.nextMove());
+    assertEquals(historyMove, movePicker.nextMove());
+    int numberOfPickedMoves = 2;
+    int move;
+    while ((move = movePicker.nextMove()) != Move.NONE) {
+      assertTrue(move != killer && move != historyMove, "Move is picked twice");
+      numberOfPickedMoves++;
+    }
+    assertEquals(board.generateMoves().length, numberOfPickedMoves);
+
+    // Aging halves the history scores and removes the killers
+    history.age();
+    assertEquals(18, history.getScore(historyMove));
+    assertEquals(Move.NONE, history.getKiller(2, 0));
+  }
+}
@@ -0,0 +1,130 @@
+package murusgallicus.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Random;
+import murusgallicus.core.Board;
+import murusgallicus.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+
+class NeuralNetworkTest {
+
+  /**
+   * The expected probabilities were computed from the weights in double precision, so the float
+   * forward pass has to match them up to a small tolerance.
+   */
+  @Test
+  void testPredict() throws IOException {
+    NeuralNetwork network = NeuralNetwork.load();
+    BufferedReader reader = TestUtils.loadTestData("testNeuralNetwork.csv");
+    float[] probabilities = new float[2];
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] cols = line.split(";");
+      int[] first = new Board(cols[0]).bitify();
+      int[] second = new Board(cols[1]).bitify();
+      String[] expected = cols[2].split(",");
+      network.predict(first, second, probabilities);
+      assertEquals(Float.parseFloat(expected[0]), probabilities[0], 1e-4,
+          "Prediction not correct for " + cols[0] + " and " + cols[1]);
+      assertEquals(Float.parseFloat(expected[1]), probabilities[1], 1e-4,
+          "Prediction not correct for " + cols[0] + " and " + cols[1]);
+      assertEquals(probabilities[0] > 0.5f, network.isFirstBetter(first, second));
+    }
+  }
+
+  @Test
+  void testBatchPredict() throws IOException {
+    NeuralNetwork network = NeuralNetwork.load();
+    BufferedReader reader = TestUtils.loadTestData("testNeuralNetwork.csv");
+    int[] reference = new Board("tttttttt/8/8/8/8/8/TTTTTTTT r").bitify();
+    int[][] firsts = new int[64][];
+    int[][] seconds = new int[64][];
+    int count = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] cols = line.split(";");
+      firsts[count] = new Board(cols[0]).bitify();
+      seconds[count++] = reference;
+      firsts[count] = reference;
+      seconds[count++] = new Board(cols[1]).bitify();
+    }
+
+    float[] probabilities = new float[2 * count];
+    network.predict(firsts, seconds, 1, count - 1, probabilities);
+    boolean[] firstIsBetter = new boolean[count];
+    network.compare(firsts, seconds, 0, count, firstIsBetter);
+    float[] expected = new float[2];
+    for (int i = 1; i < count; i++) {
+      network.predict(firsts[i], seconds[i], expected);
+      assertEquals(expected[0], probabilities[2 * (i - 1)], 1e-5, "Pair " + i);
+      assertEquals(expected[1], probabilities[2 * (i - 1) + 1], 1e-5, "Pair " + i);
+      assertEquals(network.isFirstBetter(firsts[i], seconds[i]), firstIsBetter[i], "Pair " + i);
+    }
+  }
+
+  @Test
+  void testAccumulatorEncoding() throws IOException {
+    NeuralNetwork network = NeuralNetwork.load();
+    Board board = new Board("tttttttt/8/8/8/8/8/TTTTTTTT r");
+    board.setAccumulator(network.createAccumulator());
+    int[] reference = board.bitify();
+    float[] expected = new float[network.getEncodingSize()];
+    float[] actual = new float[network.getEncodingSize()];
+    int[] moves = new int[Board.MAX_MOVES];
+    int numberOfMoves = board.generateMoves(moves);
+    for (int i = 0; i < numberOfMoves; i++) {
+      board.makeMove(moves[i]);
+      network.encode(board.bitify(), expected, 0);
+      network.encode(board.getAccumulator(), actual, 0);
+      for (int j = 0; j < expected.length; j++) assertEquals(expected[j], actual[j], 1e-3);
+      assertEquals(network.isFirstBetter(board.bitify(), reference),
+          network.isFirstBetter(board.getAccumulator(), reference));
+      board.unmakeMove(moves[i]);
+    }
+  }
+
+  @Test
+  void testVectorKernels() {
+    Random random = new Random(42);
+    float[] a = new float[101];
+    float[] b = new float[101];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = random.nextFloat() - 0.5f;
+      b[i] = random.nextFloat() - 0.5f;
+    }
+    for (int length = 0; length <= 96; length += 7) {
+      // The scalar kernels against a plain reference, then the kernels in use against them
+      double reference = 0;
+      for (int i = 0; i < length; i++) reference += (double) a[3 + i] * b[5 + i];
+      assertEquals(reference, VectorMath.scalarDot(a, 3, b, 5, length), 1e-5);
+      assertEquals(VectorMath.scalarDot(a, 3, b, 5, length), VectorMath.dot(a, 3, b, 5, length),
+          1e-5);
+      float[] expected = b.clone();
+      float[] actual = b.clone();
+      VectorMath.scalarAdd(a, 2, expected, 1, length);
+      VectorMath.add(a, 2, actual, 1, length);
+      for (int i = 0; i < b.length; i++) {
+        float added = (i >= 1 && i < 1 + length) ? a[i + 1] : 0;
+        assertEquals(b[i] + added, expected[i], 1e-6);
+        assertEquals(expected[i], actual[i], 1e-6);
+      }
+    }
+  }
+
+  @Test
+  void testBitify() {
+    int[] features = new Board("tttttttt/8/8/8/8/8/TTTTTTTT g").bitify();
+    assertEquals(NeuralNetwork.NUMBER_OF_FEATURES, features.length);
+    int numberOfSetFeatures = 0;
+    for (int feature: features) numberOfSetFeatures += feature;
+    assertEquals(17, numberOfSetFeatures);
+    for (int file = 0; file < 8; file++) {
+      assertEquals(1, features[56 + file * 7 + 6], "Gaul tower missing on file " + file);
+      assertEquals(1, features[4 * 56 + file * 7], "Roman tower missing on file " + file);
+    }
+    assertEquals(1, features[336]);
+  }
+}
@@ -0,0 +1,57 @@
+package murusgallicus.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import murusgallicus.core.Board;
+import org.junit.jupiter.api.Test;
+
+class TranspositionTableTest {
+
+  @Test
+  void testStoreAndProbe() {
+    TranspositionTable table = new TranspositionTable(1);
+    assertEquals(1 << 16, table.getNumberOfEntries());
+    assertEquals(0, table.probe(42));
+
+    Board board = new Board("tttttttt/8/8/8/8/8/TTTTTTTT r");
+    int move = board.parseMove("a1-a3");
+    table.store(42, move, TranspositionTable.LOWER_BOUND, 5, -100099);
+    long data = table.probe(42);
+    assertEquals(move, TranspositionTable.getMove(data));
+    assertEquals(TranspositionTable.LOWER_BOUND, TranspositionTable.getBound(data));
+    assertEquals(5, TranspositionTable.getDepth(data));
+    assertEquals(-100099, TranspositionTable.getScore(data));
+
+    // Storing the same position without a move keeps the old best move
+    table.store(42, 0, TranspositionTable.EXACT, 6, 7);
+    data = table.probe(42);
+    assertEquals(move, TranspositionTable.getMove(data));
+    assertEquals(7, TranspositionTable.getScore(data));
+    assertEquals(1, table.getMisses());
+  }
+
+  @Test
+  void testReplacement() {
+    TranspositionTable table = new TranspositionTable(1);
+    int numberOfBuckets = table.getNumberOfEntries() / 4;
+    for (int i = 0; i < 4; i++) {
+      table.store(1 + (long) i * numberOfBuckets, 0, TranspositionTable.EXACT, 10 - i, i);
+    }
+
+    // The bucket is full, so the shallowest entry gets replaced
+    long key = 1 + 4L * numberOfBuckets;
+    table.store(key, 0, TranspositionTable.EXACT, 1, 4);
+    assertEquals(0, table.probe(1 + 3L * numberOfBuckets));
+    assertNotEquals(0, table.probe(key));
+
+    // After a new search the entries of the old search get replaced first, even deep ones
+    table.newSearch();
+    long newKey = 1 + 5L * numberOfBuckets;
+    table.store(newKey, 0, TranspositionTable.EXACT, 1, 5);
+    assertEquals(0, table.probe(key));
+    table.store(1 + 6L * numberOfBuckets, 0, TranspositionTable.EXACT, 1, 6);
+    assertNotEquals(0, table.probe(newKey));
+    assertEquals(0, table.probe(1 + 2L * numberOfBuckets));
+  }
+}
@@ -1,12 +1,16 @@
 package murusgallicus.core;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import murusgallicus.ai.NeuralNetwork;
 import murusgallicus.testutils.TestUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -43,6 +47,42 @@ class BoardTest {
 
   }
 
+  @Test
+  void testFenCodec() {
+    String line;
+    byte[] buffer = new byte[FenCodec.MAX_FEN_LENGTH + 8];
+    StringBuilder builder = new StringBuilder();
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        FenCodec.parse(fen, board);
+        builder.setLength(0);
+        assertEquals(fen, FenCodec.write(board, builder).toString());
+
+        int length = FenCodec.write(board, buffer, 3);
+        Board other = new Board("8/8/8/8/8/8/8 r");
+        FenCodec.parse(buffer, 3, length - 3, other);
+        assertEquals(board, other, "Byte FEN codec not correct for FEN=" + fen);
+        assertEquals(board.getZobristKey(), other.getZobristKey());
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testLoadPositions() {
+    byte[] data = ("POSITION:WHITE_WINS:BLACK_WINS\n"
+        + "tttttttt/8/8/8/8/8/TTTTTTTT r;1;0\n"
+        + "8/1t6/1Ww1w3/1TWw4/8/1T1w4/8 g;0;1\n").getBytes();
+    long[] positions = FenCodec.parsePositions(data);
+    assertEquals(2 * Position.PACKED_SIZE, positions.length);
+    Position position = new Position();
+    position.readFrom(positions, Position.PACKED_SIZE);
+    assertEquals("8/1t6/1Ww1w3/1TWw4/8/1T1w4/8 g", new Board(position).toString());
+  }
+
   @Test
   void testGenerateMoves() {
     String line;
@@ -75,6 +115,26 @@ class BoardTest {
     }
   }
 
+  @Test
+  void testMobility() {
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+        assertEquals(board.generateMoves().length, board.mobility(board.getPlayerToMove()),
+            "Mobility does not match the number of moves for FEN=" + fen);
+        char otherPlayer = (board.getPlayerToMove() == 'r') ? 'g' : 'r';
+        board.setBoard(fen.substring(0, fen.length() - 1) + otherPlayer);
+        assertEquals(board.generateMoves().length, board.mobility(otherPlayer),
+            "Mobility does not match the number of moves for FEN=" + fen);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
   @Test
   void testExecuteMove() {
     reader = TestUtils.loadTestData("testExecuteMove.csv");
@@ -92,6 +152,201 @@ class BoardTest {
     }
   }
 
+  @Test
+  void testMakeAndUnmakeMove() {
+    reader = TestUtils.loadTestData("testExecuteMove.csv");
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        String[] cols = line.split(";");
+        board.setBoard(cols[0]);
+        int move = board.parseMove(cols[1]);
+        assertEquals(cols[1], Move.toString(move), "Move encoding not correct for " + cols[1]);
+        board.makeMove(move);
+        assertEquals(cols[2], board.toString(), "Make move not correct for FEN=" + cols[0]);
+        board.unmakeMove(move);
+        assertEquals(cols[0], board.toString(), "Unmake move not correct for FEN=" + cols[0]);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testUnmakeMoveRestoresBoard() {
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+        Board expected = new Board(fen);
+        int[] moves = new int[Board.MAX_MOVES];
+        int numberOfMoves = board.generateMoves(moves);
+        for (int i = 0; i < numberOfMoves; i++) {
+          board.makeMove(moves[i]);
+          board.unmakeMove(moves[i]);
+          assertEquals(expected, board, "Unmake move not correct for FEN=" + fen + " and move="
+              + Move.toString(moves[i]));
+          assertEquals(fen, board.toString());
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testIncrementalZobristKey() {
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+        assertEquals(new Board(fen).getZobristKey(), board.getZobristKey(),
+            "Equal positions have different keys for FEN=" + fen);
+        int[] moves = new int[Board.MAX_MOVES];
+        int numberOfMoves = board.generateMoves(moves);
+        for (int i = 0; i < numberOfMoves; i++) {
+          board.makeMove(moves[i]);
+          assertEquals(new Board(board.toString()).getZobristKey(), board.getZobristKey(),
+              "Incremental key not correct for FEN=" + fen + " and move=" + Move.toString(moves[i]));
+          board.unmakeMove(moves[i]);
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testIncrementalEvaluationTotals() {
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+        int[] moves = new int[Board.MAX_MOVES];
+        int numberOfMoves = board.generateMoves(moves);
+        for (int i = 0; i < numberOfMoves; i++) {
+          board.makeMove(moves[i]);
+          Board expected = new Board(board.toString());
+          String message = "Incremental totals not correct for FEN=" + fen + " and move="
+              + Move.toString(moves[i]);
+          assertEquals(expected.romanPieceSquareScore, board.romanPieceSquareScore, message);
+          assertEquals(expected.gaulPieceSquareScore, board.gaulPieceSquareScore, message);
+          assertEquals(expected.romanMaterial, board.romanMaterial, message);
+          assertEquals(expected.gaulMaterial, board.gaulMaterial, message);
+          board.unmakeMove(moves[i]);
+        }
+        assertEquals(new Board(fen).romanPieceSquareScore, board.romanPieceSquareScore);
+        assertEquals(new Board(fen).gaulMaterial, board.gaulMaterial);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testIncrementalAccumulator() {
+    Random random = new Random(7);
+    float[] columns = new float[NeuralNetwork.NUMBER_OF_FEATURES * 16];
+    float[] biases = new float[16];
+    for (int i = 0; i < columns.length; i++) columns[i] = random.nextFloat() - 0.5f;
+    for (int i = 0; i < biases.length; i++) biases[i] = random.nextFloat() - 0.5f;
+    Board expected = new Board("8/8/8/8/8/8/8 r");
+    expected.setAccumulator(new Accumulator(columns, biases));
+    board.setAccumulator(new Accumulator(columns, biases));
+
+    String line;
+    int[] moves = new int[Board.MAX_MOVES];
+    int[] replies = new int[Board.MAX_MOVES];
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+        float[] initial = board.getAccumulator().values().clone();
+        int numberOfMoves = board.generateMoves(moves);
+        for (int i = 0; i < numberOfMoves; i++) {
+          board.makeMove(moves[i]);
+          int numberOfReplies = board.generateMoves(replies);
+          if (numberOfReplies > 0) board.makeMove(replies[0]);
+          expected.setBoard(board.toString());
+          float[] values = board.getAccumulator().values();
+          for (int j = 0; j < values.length; j++) {
+            assertEquals(expected.getAccumulator().values()[j], values[j], 1e-4,
+                "Accumulator not correct for FEN=" + fen + " and move=" + Move.toString(moves[i]));
+          }
+          if (numberOfReplies > 0) board.unmakeMove(replies[0]);
+          board.unmakeMove(moves[i]);
+        }
+        assertArrayEquals(initial, board.getAccumulator().values());
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testSnapshotAndCopy() {
+    String line;
+    Board copy = new Board("8/8/8/8/8/8/8 r");
+    Position position = new Position();
+    long[] buffer = new long[2 * Position.PACKED_SIZE];
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        String fen = line.split(";")[0];
+        board.setBoard(fen);
+
+        board.copyInto(copy);
+        assertEquals(board, copy, "Copy not correct for FEN=" + fen);
+        assertEquals(board.getZobristKey(), copy.getZobristKey());
+        assertEquals(board.generateMoves().length, copy.generateMoves().length);
+
+        board.snapshot().writeTo(buffer, Position.PACKED_SIZE);
+        position.readFrom(buffer, Position.PACKED_SIZE);
+        assertEquals(board.snapshot(), position, "Packed position not correct for FEN=" + fen);
+        position.copyInto(copy);
+        assertEquals(fen, copy.toString());
+        assertEquals(board.getZobristKey(), copy.getZobristKey());
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testLazyRating() {
+    int[] windows = {-300, -100, -10, 0, 10, 100, 300};
+    int[] moves = new int[Board.MAX_MOVES];
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        if (line.charAt(0) == '#') continue;
+        board.setBoard(line.split(";")[0]);
+        int numberOfMoves = board.generateMoves(moves);
+        for (int i = 0; i < numberOfMoves; i++) {
+          board.makeMove(moves[i]);
+          int rating = board.getRating();
+          for (int alpha: windows) {
+            int beta = alpha + 50;
+            int lazyRating = board.getRating(alpha, beta);
+            if (lazyRating <= alpha) assertTrue(rating <= lazyRating, "FEN=" + board);
+            else if (lazyRating >= beta) assertTrue(rating >= lazyRating, "FEN=" + board);
+            else assertEquals(rating, lazyRating, "FEN=" + board);
+          }
+          board.unmakeMove(moves[i]);
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
   @ParameterizedTest
   @ValueSource(ints = {10000, 100000, 1000000})
   void testGetRatingPerformance(int nrOfExecutions) {
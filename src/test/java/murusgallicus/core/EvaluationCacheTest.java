@@ -0,0 +1,67 @@
+package murusgallicus.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import murusgallicus.core.EvaluationCache.ReplacementPolicy;
+import org.junit.jupiter.api.Test;
+
+class EvaluationCacheTest {
+
+  @Test
+  void testStoreAndLookUp() {
+    EvaluationCache cache = new EvaluationCache(1, ReplacementPolicy.ALWAYS);
+    assertEquals(1 << 16, cache.getNumberOfEntries());
+    assertFalse(cache.contains(0));
+    assertEquals(-1, cache.get(0, -1));
+
+    cache.put(0, 0);
+    cache.put(42, -100000);
+    assertEquals(0, cache.get(0, -1));
+    assertEquals(-100000, cache.get(42, -1));
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // A key that maps to the same slot replaces the entry, the old key then misses
+    long collidingKey = 42 + cache.getNumberOfEntries();
+    cache.put(collidingKey, 7);
+    assertEquals(7, cache.get(collidingKey, -1));
+    assertEquals(-1, cache.get(42, -1));
+
+    cache.clear();
+    assertFalse(cache.contains(collidingKey));
+    assertEquals(0, cache.getHits());
+  }
+
+  @Test
+  void testAgeReplacement() {
+    EvaluationCache cache = new EvaluationCache(1, ReplacementPolicy.AGE);
+    long collidingKey = 42 + cache.getNumberOfEntries();
+    cache.put(42, 1);
+    cache.put(collidingKey, 2);
+    assertTrue(cache.contains(42));
+    assertFalse(cache.contains(collidingKey));
+
+    cache.newSearch();
+    cache.put(collidingKey, 2);
+    assertTrue(cache.contains(collidingKey));
+    assertFalse(cache.contains(42));
+  }
+
+  @Test
+  void testRatingUsesCache() {
+    EvaluationCache previous = Board.getEvaluationCache();
+    EvaluationCache cache = new EvaluationCache(1, ReplacementPolicy.ALWAYS);
+    Board.setEvaluationCache(cache);
+    try {
+      Board board = new Board("tttttttt/8/8/8/8/8/TTTTTTTT r");
+      int rating = board.getRating();
+      assertEquals(rating, board.getRating());
+      assertEquals(1, cache.getHits());
+      assertEquals(1, cache.getMisses());
+    } finally {
+      Board.setEvaluationCache(previous);
+    }
+  }
+}
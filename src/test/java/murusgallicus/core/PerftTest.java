@@ -0,0 +1,59 @@
+package murusgallicus.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Map;
+import murusgallicus.testutils.TestUtils;
+import org.junit.jupiter.api.Test;
+
+class PerftTest {
+
+  /**
+   * The node counts in testGetOptimalMove.csv are the number of nodes searched by the minimax
+   * algorithm without cutoffs, i.e. the sum of the perft results up to the given depth.
+   */
+  @Test
+  void testPerft() {
+    BufferedReader reader = TestUtils.loadTestData("testGetOptimalMove.csv");
+    String line;
+    try {
+      while ((line = reader.readLine()) != null) {
+        String[] fenAndNumbers = line.split(";");
+        if (fenAndNumbers.length < 2) continue;
+        Board board = new Board(fenAndNumbers[0]);
+        String[] numberOfNodes = fenAndNumbers[1].split(",");
+        long nodes = 0;
+        for (int depth = 1; depth <= Math.min(numberOfNodes.length, 4); depth++) {
+          nodes += board.perft(depth);
+          assertEquals(Long.parseLong(numberOfNodes[depth - 1]), nodes,
+              "Perft not correct for FEN=" + fenAndNumbers[0] + " and depth=" + depth);
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Test
+  void testParallelAndHashedPerft() {
+    Board board = new Board("t4t1t/3ttw2/2wt4/4w3/W1TW1T2/W1TT1WW1/6T1 g");
+    long expected = board.perft(4);
+    try (Perft perft = new Perft(4, 0)) {
+      assertEquals(expected, perft.perft(board, 4));
+    }
+    try (Perft perft = new Perft(4, 1)) {
+      assertEquals(expected, perft.perft(board, 4));
+    }
+
+    long divided = 0;
+    Map<String, Long> divide;
+    try (Perft perft = new Perft(2, 0)) {
+      divide = perft.divide(board, 4);
+    }
+    for (long nodes: divide.values()) divided += nodes;
+    assertEquals(board.generateMoves().length, divide.size());
+    assertEquals(expected, divided);
+  }
+}
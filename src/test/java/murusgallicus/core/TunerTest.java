@@ -0,0 +1,45 @@
+package murusgallicus.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+
+class TunerTest {
+
+  /**
+   * With the initial weights the linear model of the tuner has to rate every position exactly like
+   * the rating function.
+   */
+  @Test
+  void testEvaluateMatchesRating() throws IOException {
+    Tuner tuner = Tuner.load(Paths.get("scripts/data/data.csv"), 2);
+    assertTrue(tuner.getNumberOfPositions() > 0);
+    Board board = new Board("8/8/8/8/8/8/8 r");
+    for (int i = 0; i < tuner.getNumberOfPositions(); i++) {
+      tuner.copyPosition(i, board);
+      int rating = board.getRating();
+      if (board.getPlayerToMove() == 'g') rating = -rating;
+      assertEquals(rating, tuner.evaluate(i), 1e-9, "Rating not correct for FEN=" + board);
+    }
+  }
+
+  @Test
+  void testTuneReducesError() throws IOException {
+    Tuner tuner = Tuner.load(Paths.get("scripts/data/data.csv"), 2);
+    tuner.fitScalingConstant();
+    double initialError = tuner.computeError();
+    tuner.tune(50, 1.0, 0);
+    assertTrue(tuner.computeError() < initialError);
+    assertTrue(tuner.formatWeights().contains("romanWallPieceSquareTable"));
+  }
+
+  @Test
+  void testLazyMarginBoundsPositions() throws IOException {
+    int maximumSwing = Tuner.calibrateLazyMargin(Paths.get("scripts/positions.txt"));
+    assertTrue(maximumSwing > 0);
+    assertTrue(maximumSwing <= BoardRating.LAZY_MARGIN);
+  }
+}